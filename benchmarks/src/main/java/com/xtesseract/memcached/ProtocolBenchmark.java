@@ -0,0 +1,120 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.xtesseract.memcached.ProtocolHelper.RESPONSE_PACKET_MAGIC;
+import static com.xtesseract.memcached.ProtocolHelper.UDP_HEADER_LENGTH;
+
+/**
+ * Кодирование запросов и разбор ответов без сети. Разбор проходит через те же обработчики, что и в
+ * {@link UdpClient}: сборку датаграмм и поиск ожидающего запроса.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 11211);
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 40000);
+    private static final int OPAQUE_OFFSET = UDP_HEADER_LENGTH + 12;
+
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+
+    private String key;
+    private byte[] value;
+    private PendingRequests callbacks;
+    private EmbeddedChannel channel;
+    private ByteBuf response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        key = "benchmark:key:0001";
+        value = new byte[valueSize];
+        Arrays.fill(value, (byte) 'v');
+
+        callbacks = new PendingRequests(1024, 0, 0);
+        channel = new EmbeddedChannel(new ResponseAssembler(1000, 1024 * 1024),
+                new UdpClient.PacketInboundHandler(new ResponseDispatcher(callbacks, ClientMetrics.NONE)));
+
+        response = alloc.directBuffer();
+        ProtocolHelper.writeUdpHeader(response, 0, 0, 1);
+        response.writeByte(RESPONSE_PACKET_MAGIC);
+        response.writeByte(Operation.GET);
+        response.writeShort(0);
+        response.writeByte(4);
+        response.writeByte(0);
+        response.writeShort(0);
+        response.writeInt(4 + value.length);
+        response.writeInt(0);
+        response.writeLong(0);
+        response.writeInt(Transcoders.BYTES_FLAGS);
+        response.writeBytes(value);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        channel.finish();
+        response.release();
+    }
+
+    @Benchmark
+    public int encodeGet() {
+        ByteBuf packet = ProtocolHelper.getSimpleKeyPacket(alloc, callbacks.nextId(), Operation.GET, key);
+        int size = packet.readableBytes();
+        packet.release();
+        return size;
+    }
+
+    @Benchmark
+    public int encodeSet() {
+        ByteBuf packet = ProtocolHelper.getSetPacket(alloc, callbacks.nextId(), Operation.SET, key, 0, value,
+                Transcoders.BYTES);
+        int size = packet.readableBytes();
+        packet.release();
+        return size;
+    }
+
+    /**
+     * Разбор ответа на GET, включая декодирование значения.
+     */
+    @Benchmark
+    public byte[] decodeGet() throws Exception {
+        Promise<byte[]> promise = new ValuePromise<>(ImmediateEventExecutor.INSTANCE, Transcoders.BYTES);
+        int opaque = callbacks.register(promise);
+
+        ByteBuf datagram = response.duplicate().retain();
+        datagram.setShort(0, opaque);
+        datagram.setInt(OPAQUE_OFFSET, opaque);
+        channel.writeInbound(new DatagramPacket(datagram, CLIENT, SERVER));
+        return promise.getNow();
+    }
+}
@@ -0,0 +1,165 @@
+package com.xtesseract.memcached.benchmarks;
+
+import com.xtesseract.memcached.Client;
+import com.xtesseract.memcached.ClientBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.Future;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запросы через {@link Client} к {@link FakeMemcachedServer}. Каждый вызов отправляет {@code inFlight} запросов и
+ * ждет все ответы, поэтому результат бенчмарка относится к пачке, а количество запросов и таймаутов в секунду
+ * выводится отдельными счетчиками {@code requests} и {@code failures}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientBenchmark {
+
+    private static final int KEYS = 1024;
+    private static final int TIMEOUT = 100; // мс.
+
+    /**
+     * Счетчики запросов одного потока
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Requests {
+        public long requests;
+        public long failures;
+
+        private int next;
+        private Future<?>[] futures;
+
+        @Setup(Level.Iteration)
+        public void setUp(ClientBenchmark benchmark) {
+            requests = 0;
+            failures = 0;
+            futures = new Future<?>[benchmark.inFlight];
+        }
+
+        String nextKey(String[] keys) {
+            next = (next + 1) & (KEYS - 1);
+            return keys[next];
+        }
+
+        void await() throws InterruptedException {
+            for (Future<?> future : futures) {
+                future.await();
+                ++requests;
+                if (!future.isSuccess()) {
+                    ++failures;
+                }
+            }
+        }
+    }
+
+    /**
+     * Вероятность потери датаграммы запроса
+     */
+    @Param({"0", "0.01"})
+    public double loss;
+
+    /**
+     * Задержка ответа сервера в мкс.
+     */
+    @Param({"0", "200"})
+    public long delay;
+
+    /**
+     * Количество одновременно ожидающих ответа запросов одного потока
+     */
+    @Param({"1", "16", "64"})
+    public int inFlight;
+
+    @Param({"100"})
+    public int valueSize;
+
+    private FakeMemcachedServer server;
+    private EventLoopGroup group;
+    private Client client;
+
+    private String[] keys;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new FakeMemcachedServer(loss, delay);
+        group = new NioEventLoopGroup();
+        client = new ClientBuilder()
+                .eventLoopGroup(group)
+                .addReadWriteMirror(Collections.singletonList(server.address()))
+                .setTimeout(TIMEOUT)
+                .build();
+
+        keys = new String[KEYS];
+        value = new byte[valueSize];
+        Arrays.fill(value, (byte) 'v');
+        for (int i = 0; i < KEYS; ++i) {
+            keys[i] = "benchmark:key:" + i;
+            // Заполнение без потерь не гарантировано, промахи чтения допустимы
+            client.set(keys[i], 0, value).await();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        server.close();
+    }
+
+    @Benchmark
+    public void get(Requests requests) throws InterruptedException {
+        for (int i = 0; i < inFlight; ++i) {
+            requests.futures[i] = client.get(requests.nextKey(keys));
+        }
+        requests.await();
+    }
+
+    @Benchmark
+    public void set(Requests requests) throws InterruptedException {
+        for (int i = 0; i < inFlight; ++i) {
+            requests.futures[i] = client.set(requests.nextKey(keys), 0, value);
+        }
+        requests.await();
+    }
+
+    /**
+     * Запись без ожидания ответа. Пачка завершается одним запросом с ответом, чтобы не превышать скорость
+     * обработки сервером.
+     */
+    @Benchmark
+    public void setQ(Requests requests) throws InterruptedException {
+        for (int i = 0; i < inFlight - 1; ++i) {
+            client.setQ(requests.nextKey(keys), 0, value);
+            ++requests.requests;
+        }
+        Future<?> last = client.set(requests.nextKey(keys), 0, value);
+        last.await();
+        ++requests.requests;
+        if (!last.isSuccess()) {
+            ++requests.failures;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.xtesseract.memcached.benchmarks;
+
+import com.xtesseract.memcached.Operation;
+import com.xtesseract.memcached.ProtocolHelper;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.CharsetUtil;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.xtesseract.memcached.ProtocolHelper.COMMAND_HEADER_LENGTH;
+import static com.xtesseract.memcached.ProtocolHelper.UDP_HEADER_LENGTH;
+
+/**
+ * Сервер бинарного протокола memcached поверх UDP, работающий в той же JVM, что и клиент. Хранит значения в памяти
+ * без ограничения размера и времени жизни. Может терять датаграммы запросов и задерживать ответы, чтобы измерения
+ * учитывали поведение сети.
+ */
+public class FakeMemcachedServer implements AutoCloseable {
+
+    private static final int MAX_DATAGRAM_SIZE = ProtocolHelper.DEFAULT_MAX_DATAGRAM_SIZE;
+
+    private static final int STATUS_KEY_NOT_FOUND = 0x01;
+    private static final int STATUS_KEY_EXISTS = 0x02;
+    private static final int STATUS_NON_NUMERIC_VALUE = 0x06;
+    private static final int STATUS_UNKNOWN_COMMAND = 0x81;
+
+    private static final class Item {
+        final int flags;
+        final byte[] value;
+        final long cas;
+
+        Item(int flags, byte[] value, long cas) {
+            this.flags = flags;
+            this.value = value;
+            this.cas = cas;
+        }
+    }
+
+    private final class RequestHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) throws Exception {
+            if (loss > 0 && ThreadLocalRandom.current().nextDouble() < loss) {
+                return;
+            }
+            ByteBuf in = packet.content();
+            if (in.readableBytes() < UDP_HEADER_LENGTH) {
+                return;
+            }
+            int requestId = in.readUnsignedShort();
+            in.skipBytes(UDP_HEADER_LENGTH - 2);
+
+            ByteBuf out = ctx.alloc().buffer();
+            while (in.readableBytes() >= COMMAND_HEADER_LENGTH && handle(in, out)) {
+                // Датаграмма может содержать несколько команд
+            }
+            if (!out.isReadable()) {
+                out.release();
+                return;
+            }
+
+            InetSocketAddress sender = packet.sender();
+            if (delay > 0) {
+                ctx.executor().schedule(() -> send(ctx, sender, requestId, out), delay, TimeUnit.MICROSECONDS);
+            } else {
+                send(ctx, sender, requestId, out);
+            }
+        }
+    }
+
+    private final EventLoopGroup group;
+    private final Channel channel;
+    private final double loss;
+    private final long delay; // мкс.
+
+    private final ConcurrentHashMap<String, Item> items = new ConcurrentHashMap<>();
+    private final AtomicLong casCounter = new AtomicLong();
+
+    /**
+     * @param loss  вероятность потери датаграммы запроса
+     * @param delay задержка ответа в мкс.
+     */
+    public FakeMemcachedServer(double loss, long delay) {
+        this.loss = loss;
+        this.delay = delay;
+        this.group = new NioEventLoopGroup(1);
+
+        Bootstrap b = new Bootstrap();
+        b.group(group)
+                .channel(NioDatagramChannel.class)
+                .handler(new RequestHandler());
+        try {
+            channel = b.bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public InetSocketAddress address() {
+        return (InetSocketAddress) channel.localAddress();
+    }
+
+    @Override
+    public void close() {
+        channel.close().syncUninterruptibly();
+        group.shutdownGracefully();
+    }
+
+    /**
+     * Выполняет одну команду.
+     *
+     * @return {@code false}, если разбор датаграммы следует прекратить
+     */
+    private boolean handle(ByteBuf in, ByteBuf out) {
+        if (ProtocolHelper.REQUEST_PACKET_MAGIC != in.readUnsignedByte()) {
+            return false;
+        }
+        byte opCode = in.readByte();
+        int keyLength = in.readUnsignedShort();
+        int extrasLength = in.readUnsignedByte();
+        in.skipBytes(3); // data type, vbucket id
+        int totalBodyLength = in.readInt();
+        int opaque = in.readInt();
+        long cas = in.readLong();
+        int valueLength = totalBodyLength - extrasLength - keyLength;
+        if (valueLength < 0 || in.readableBytes() < totalBodyLength) {
+            return false;
+        }
+
+        int extrasIndex = in.readerIndex();
+        String key = in.toString(extrasIndex + extrasLength, keyLength, CharsetUtil.UTF_8);
+        byte[] value = new byte[valueLength];
+        in.getBytes(extrasIndex + extrasLength + keyLength, value);
+        in.skipBytes(totalBodyLength);
+
+        switch (opCode) {
+            case Operation.GET:
+            case Operation.GET_Q:
+            case Operation.GET_K:
+            case Operation.GET_KQ: {
+                boolean quiet = Operation.GET_Q == opCode || Operation.GET_KQ == opCode;
+                Item item = items.get(key);
+                if (null == item) {
+                    if (!quiet) {
+                        writeError(out, opCode, opaque, STATUS_KEY_NOT_FOUND);
+                    }
+                    return true;
+                }
+                boolean withKey = Operation.GET_K == opCode || Operation.GET_KQ == opCode;
+                byte[] keyBytes = withKey ? key.getBytes(CharsetUtil.UTF_8) : new byte[0];
+                writeHeader(out, opCode, opaque, 0, item.cas, 4, keyBytes.length, item.value.length);
+                out.writeInt(item.flags);
+                out.writeBytes(keyBytes);
+                out.writeBytes(item.value);
+                return true;
+            }
+
+            case Operation.SET:
+            case Operation.SET_Q:
+            case Operation.ADD:
+            case Operation.ADD_Q:
+            case Operation.REPLACE:
+            case Operation.REPLACE_Q: {
+                int flags = extrasLength >= 4 ? in.getInt(extrasIndex) : 0;
+                int status = store(opCode, key, cas, flags, value);
+                respond(out, opCode, opaque, status, isQuiet(opCode));
+                return true;
+            }
+
+            case Operation.DELETE:
+            case Operation.DELETE_Q: {
+                int status = null == items.remove(key) ? STATUS_KEY_NOT_FOUND : 0;
+                respond(out, opCode, opaque, status, Operation.DELETE_Q == opCode);
+                return true;
+            }
+
+            case Operation.INCREMENT:
+            case Operation.INCREMENT_Q:
+            case Operation.DECREMENT:
+            case Operation.DECREMENT_Q: {
+                long amount = in.getLong(extrasIndex);
+                long initial = in.getLong(extrasIndex + 8);
+                boolean increment = Operation.INCREMENT == opCode || Operation.INCREMENT_Q == opCode;
+                long result;
+                try {
+                    result = counter(key, increment, amount, initial);
+                } catch (NumberFormatException e) {
+                    writeError(out, opCode, opaque, STATUS_NON_NUMERIC_VALUE);
+                    return true;
+                }
+                if (Operation.INCREMENT == opCode || Operation.DECREMENT == opCode) {
+                    writeHeader(out, opCode, opaque, 0, casCounter.get(), 0, 0, 8);
+                    out.writeLong(result);
+                }
+                return true;
+            }
+
+            case Operation.NOOP:
+                writeHeader(out, opCode, opaque, 0, 0, 0, 0, 0);
+                return true;
+
+            default:
+                writeError(out, opCode, opaque, STATUS_UNKNOWN_COMMAND);
+                return true;
+        }
+    }
+
+    private long counter(String key, boolean increment, long amount, long initial) {
+        while (true) {
+            Item item = items.get(key);
+            if (null == item) {
+                Item created = new Item(0, Long.toString(initial).getBytes(CharsetUtil.US_ASCII), casCounter.incrementAndGet());
+                if (null == items.putIfAbsent(key, created)) {
+                    return initial;
+                }
+                continue;
+            }
+            long current = Long.parseLong(new String(item.value, CharsetUtil.US_ASCII));
+            // Как в memcached: уменьшение не опускает значение ниже нуля
+            long result = increment ? current + amount : Math.max(0, current - amount);
+            Item updated = new Item(item.flags, Long.toString(result).getBytes(CharsetUtil.US_ASCII), casCounter.incrementAndGet());
+            if (items.replace(key, item, updated)) {
+                return result;
+            }
+        }
+    }
+
+    private static boolean isQuiet(byte opCode) {
+        return Operation.SET_Q == opCode || Operation.ADD_Q == opCode || Operation.REPLACE_Q == opCode;
+    }
+
+    private void respond(ByteBuf out, byte opCode, int opaque, int status, boolean quiet) {
+        if (0 != status) {
+            writeError(out, opCode, opaque, status);
+        } else if (!quiet) {
+            writeHeader(out, opCode, opaque, 0, casCounter.get(), 0, 0, 0);
+        }
+    }
+
+    private void send(ChannelHandlerContext ctx, InetSocketAddress recipient, int requestId, ByteBuf out) {
+        int payloadSize = MAX_DATAGRAM_SIZE - UDP_HEADER_LENGTH;
+        int total = (out.readableBytes() + payloadSize - 1) / payloadSize;
+        for (int sequence = 0; sequence < total; ++sequence) {
+            int length = Math.min(payloadSize, out.readableBytes());
+            ByteBuf datagram = ctx.alloc().buffer(UDP_HEADER_LENGTH + length);
+            ProtocolHelper.writeUdpHeader(datagram, requestId, sequence, total);
+            datagram.writeBytes(out, length);
+            ctx.write(new DatagramPacket(datagram, recipient));
+        }
+        ctx.flush();
+        out.release();
+    }
+
+    private int store(byte opCode, String key, long cas, int flags, byte[] value) {
+        Item item = new Item(flags, value, casCounter.incrementAndGet());
+        switch (opCode) {
+            case Operation.ADD:
+            case Operation.ADD_Q:
+                return null == items.putIfAbsent(key, item) ? 0 : STATUS_KEY_EXISTS;
+
+            case Operation.REPLACE:
+            case Operation.REPLACE_Q:
+                return null == items.replace(key, item) ? STATUS_KEY_NOT_FOUND : 0;
+
+            default:
+                if (0 == cas) {
+                    items.put(key, item);
+                    return 0;
+                }
+                Item current = items.get(key);
+                if (null == current) {
+                    return STATUS_KEY_NOT_FOUND;
+                }
+                return current.cas == cas && items.replace(key, current, item) ? 0 : STATUS_KEY_EXISTS;
+        }
+    }
+
+    private void writeError(ByteBuf out, byte opCode, int opaque, int status) {
+        byte[] message = ("Error " + status).getBytes(CharsetUtil.US_ASCII);
+        writeHeader(out, opCode, opaque, status, 0, 0, 0, message.length);
+        out.writeBytes(message);
+    }
+
+    private static void writeHeader(ByteBuf out, byte opCode, int opaque, int status, long cas,
+                                    int extrasLength, int keyLength, int valueLength) {
+        out.writeByte(ProtocolHelper.RESPONSE_PACKET_MAGIC);
+        out.writeByte(opCode);
+        out.writeShort(keyLength);
+        out.writeByte(extrasLength);
+        out.writeByte(0); // data type
+        out.writeShort(status);
+        out.writeInt(extrasLength + keyLength + valueLength);
+        out.writeInt(opaque);
+        out.writeLong(cas);
+    }
+}
@@ -0,0 +1,573 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static com.xtesseract.memcached.ProtocolHelper.*;
+
+/**
+ * Реализация {@link com.xtesseract.memcached.Client memcahed клиента} бинароного протокола, не зависящая от
+ * транспорта. Ответы сопоставляются с запросами по полю opaque.
+ */
+abstract class AbstractClient implements Client, Transport {
+
+    private interface PacketFactory {
+        ByteBuf apply(byte opCode);
+    }
+
+    private interface RequestSender {
+        void send(int requestId, Promise<?> promise);
+    }
+
+    private final ServerStrategy readStrategy;
+    private final BatchStrategy batchReadStrategy;
+    private final ServerStrategy readOnWriteStrategy;
+    private final ServerStrategy writeOnlyStrategy;
+    private final ServerStrategy commonStrategy;
+    private final ServerStrategy casStrategy;
+    private final ServerStrategy replicaStrategy;
+
+    private final int timeout; // ms.
+    private final int timeoutResolution; // ms.
+    private final int maxDatagramSize;
+
+    private final PendingRequests callbacks;
+    private final ResponseDispatcher dispatcher;
+    private final ClientMetrics metrics;
+    // null, если ограничено только количество запросов в таблице
+    private final Admission admission;
+    // null, если все запросы ожидают ответа одинаковое время
+    private final ServerTimeouts timeouts;
+    // null, если недоступные серверы не исключаются
+    private final ServerHealth health;
+    // null, если значения не сжимаются
+    private final Compression compression;
+    // Количество команд потоковых операций, ожидающих подтверждения
+    private final int bulkWindow;
+    // Текущие зеркала по ролям, по ним пропускается кодирование пакетов для ролей без зеркал
+    private final MirrorLocators mirrors;
+
+    // Запросы GET, ожидающие ответа, по ключу. null, если чтения не объединяются
+    private final ConcurrentHashMap<String, CoalescedGet> inflightGets;
+
+    AbstractClient(int timeout,
+                   int timeoutResolution,
+                   int maxDatagramSize,
+                   int maxPendingRequests,
+                   ClientMetrics metrics,
+                   boolean coalesceGets,
+                   Admission admission,
+                   ServerTimeouts timeouts,
+                   ServerHealth health,
+                   Compression compression,
+                   int bulkWindow,
+                   MirrorLocators mirrors,
+                   ServerStrategy readStrategy,
+                   BatchStrategy batchReadStrategy,
+                   ServerStrategy readOnWriteStrategy,
+                   ServerStrategy writeOnlyStrategy,
+                   ServerStrategy commonStrategy,
+                   ServerStrategy casStrategy,
+                   ServerStrategy replicaStrategy) {
+        this.callbacks = new PendingRequests(maxPendingRequests,
+                (int) (System.currentTimeMillis() * 100),
+                null == timeouts ? TimeUnit.MILLISECONDS.toNanos(timeout) : timeouts.minTimeout());
+        this.dispatcher = new ResponseDispatcher(callbacks, metrics, timeouts, health);
+        this.metrics = metrics;
+        this.admission = admission;
+        this.timeouts = timeouts;
+        this.health = health;
+        this.compression = compression;
+        this.bulkWindow = bulkWindow;
+        this.mirrors = mirrors;
+        if (null != health) {
+            health.attach(this);
+        }
+        metrics.pendingRequestsGauge(callbacks::size);
+        metrics.serverPendingRequestsGauge(callbacks::pending);
+        this.inflightGets = coalesceGets ? new ConcurrentHashMap<>() : null;
+
+        this.readStrategy = readStrategy;
+        this.batchReadStrategy = batchReadStrategy;
+        this.readOnWriteStrategy = readOnWriteStrategy;
+        this.writeOnlyStrategy = writeOnlyStrategy;
+        this.commonStrategy = commonStrategy;
+        this.casStrategy = casStrategy;
+        this.replicaStrategy = replicaStrategy;
+
+        this.timeout = timeout;
+        this.timeoutResolution = timeoutResolution;
+        this.maxDatagramSize = maxDatagramSize;
+    }
+
+    public int pendingRequests() {
+        return callbacks.size();
+    }
+
+    @Override
+    public void addQ(String key, int exp, String value) {
+        addQ(key, exp, value, Transcoders.STRING);
+    }
+
+    @Override
+    public <T> void addQ(String key, int exp, T value, Transcoder<T> transcoder) {
+        executeSetQ(Operation.ADD_Q, key, exp, value, transcoder);
+    }
+
+    @Override
+    public <T> Promise<Void> append(String key, T value, Transcoder<T> transcoder) {
+        return sendAndWaitResult((requestId, promise) -> sendAppendOperation(requestId, Operation.APPEND, Operation.APPEND_Q, key, value, transcoder));
+    }
+
+    @Override
+    public <T> void appendQ(String key, T value, Transcoder<T> transcoder) {
+        sendAppendOperation(nextRequestId(), Operation.APPEND_Q, Operation.APPEND_Q, key, value, transcoder);
+    }
+
+    @Override
+    public <T> Promise<Void> cas(String key, int exp, T value, long cas, Transcoder<T> transcoder) {
+        return sendCheckedSet(Operation.SET, key, exp, value, cas, transcoder(transcoder));
+    }
+
+    @Override
+    public <T> Promise<T> casUpdate(String key, int exp, Function<T, T> update, Transcoder<T> transcoder) {
+        return new CasUpdate<>(this, key, exp, update, transcoder).start();
+    }
+
+    @Override
+    public Promise<Long> dec(String key, int exp) {
+        return dec(key, exp, 1, 0);
+    }
+
+    @Override
+    public Promise<Long> dec(String key, int exp, long incValue, long initialValue) {
+        return sendAndWaitResult((requestId, promise) -> sendIncOrDecOperation(requestId, Operation.DECREMENT, Operation.DECREMENT_Q, key, exp, incValue, initialValue));
+    }
+
+    @Override
+    public void decQ(String key, int exp, long incValue, long initialValue) {
+        sendIncOrDecOperation(nextRequestId(), Operation.DECREMENT_Q, Operation.DECREMENT_Q, key, exp, incValue, initialValue);
+    }
+
+    @Override
+    public Promise<Void> delete(String key) {
+        return sendAndWaitResult((requestId, promise) -> sendWriteSimpleKeyPacketOperation(requestId, Operation.DELETE, Operation.DELETE_Q, key));
+    }
+
+    @Override
+    public void deleteQ(String key) {
+        sendWriteSimpleKeyPacketOperation(nextRequestId(), Operation.DELETE_Q, Operation.DELETE_Q, key);
+    }
+
+    @Override
+    public <T> Promise<T> gat(String key, int exp, Transcoder<T> transcoder) {
+        return sendAndWaitResult(new ValuePromise<>(eventLoop(), transcoder(transcoder)), (requestId, promise) ->
+                sendTouchOperation(promise, Operation.GAT, key, exp, (opCode) -> getTouchPacket(alloc(), requestId, opCode, key, exp)));
+    }
+
+    @Override
+    public <T> Promise<T> gatQ(String key, int exp, Transcoder<T> transcoder) {
+        return sendAndWaitResult(new ValuePromise<>(eventLoop(), transcoder(transcoder)), (requestId, promise) ->
+                sendTouchOperation(promise, Operation.GAT_Q, key, exp, (opCode) -> getQuietTouchPacket(alloc(), requestId, key, exp)));
+    }
+
+    @Override
+    public Promise<String> get(String key) {
+        return get(key, Transcoders.STRING);
+    }
+
+    @Override
+    public <T> Promise<T> get(String key, Transcoder<T> transcoder) {
+        ValuePromise<T> promise = new ValuePromise<>(eventLoop(), transcoder(transcoder));
+        if (null == inflightGets) {
+            return sendAndWaitResult(promise, (requestId, p) -> sendReadSimpleKeyPacketOperation(p, requestId, Operation.GET, key));
+        }
+
+        while (true) {
+            CoalescedGet request = inflightGets.get(key);
+            if (null != request) {
+                if (request.join(promise)) {
+                    return promise;
+                }
+                // Запрос завершен, но еще не удален из таблицы
+                inflightGets.remove(key, request);
+                continue;
+            }
+
+            request = new CoalescedGet(eventLoop(), inflightGets, key);
+            request.join(promise);
+            if (null == inflightGets.putIfAbsent(key, request)) {
+                sendAndWaitResult(request, (requestId, p) -> sendReadSimpleKeyPacketOperation(p, requestId, Operation.GET, key));
+                return promise;
+            }
+        }
+    }
+
+    @Override
+    public <T> Promise<Void> getAll(Iterator<String> keys, Transcoder<T> transcoder, BiConsumer<String, T> consumer) {
+        return new BulkGet<>(this, keys, transcoder, consumer, bulkWindow).start();
+    }
+
+    @Override
+    public Promise<Map<String, String>> getMulti(Collection<String> keys) {
+        return getMulti(keys, Transcoders.STRING);
+    }
+
+    @Override
+    public <T> Promise<Map<String, T>> getMulti(Collection<String> keys, Transcoder<T> transcoder) {
+        Promise<Map<String, T>> promise = eventLoop().newPromise();
+        if (keys.isEmpty()) {
+            return promise.setSuccess(new HashMap<>());
+        }
+
+        MultiGetRequest<T> request = new MultiGetRequest<>(this, promise, transcoder(transcoder), keys, maxDatagramSize);
+        eventLoop().execute(() -> {
+            request.retain();
+            try {
+                batchReadStrategy.accept(request, this);
+            } catch (Throwable e) {
+                promise.tryFailure(e);
+            }
+            request.release();
+        });
+        return promise;
+    }
+
+    @Override
+    public <T> Promise<CasValue<T>> gets(String key, Transcoder<T> transcoder) {
+        return sendAndWaitResult(new CasValuePromise<>(eventLoop(), transcoder(transcoder)), (requestId, promise) ->
+                sendChecked(promise, key, getSimpleKeyPacket(alloc(), requestId, Operation.GET, key)));
+    }
+
+    @Override
+    public Promise<Long> inc(String key, int exp) {
+        return inc(key, exp, 1, 1);
+    }
+
+    @Override
+    public Promise<Long> inc(String key, int exp, long incValue, long initialValue) {
+        return sendAndWaitResult((requestId, promise) -> sendIncOrDecOperation(requestId, Operation.INCREMENT, Operation.INCREMENT_Q, key, exp, incValue, initialValue));
+    }
+
+    @Override
+    public void incQ(String key, int exp, long incValue, long initialValue) {
+        sendIncOrDecOperation(nextRequestId(), Operation.INCREMENT_Q, Operation.INCREMENT_Q, key, exp, incValue, initialValue);
+    }
+
+    @Override
+    public <T> Promise<Void> prepend(String key, T value, Transcoder<T> transcoder) {
+        return sendAndWaitResult((requestId, promise) -> sendAppendOperation(requestId, Operation.PREPEND, Operation.PREPEND_Q, key, value, transcoder));
+    }
+
+    @Override
+    public <T> void prependQ(String key, T value, Transcoder<T> transcoder) {
+        sendAppendOperation(nextRequestId(), Operation.PREPEND_Q, Operation.PREPEND_Q, key, value, transcoder);
+    }
+
+    @Override
+    public void replaceQ(String key, int exp, String value) {
+        replaceQ(key, exp, value, Transcoders.STRING);
+    }
+
+    @Override
+    public <T> void replaceQ(String key, int exp, T value, Transcoder<T> transcoder) {
+        executeSetQ(Operation.REPLACE_Q, key, exp, value, transcoder);
+    }
+
+    @Override
+    public Promise<Void> set(String key, int exp, String value) {
+        return set(key, exp, value, Transcoders.STRING);
+    }
+
+    @Override
+    public <T> Promise<Void> set(String key, int exp, T value, Transcoder<T> transcoder) {
+        return sendAndWaitResult((requestId, promise) -> sendSetOperation(requestId, Operation.SET, Operation.SET_Q, key, exp, value, transcoder(transcoder)));
+    }
+
+    @Override
+    public <T> Promise<Long> setAll(Iterator<? extends Map.Entry<String, T>> entries, int exp, Transcoder<T> transcoder) {
+        return new BulkSet<>(this, entries, exp, transcoder, bulkWindow).start();
+    }
+
+    @Override
+    public void setQ(String key, int exp, String value) {
+        setQ(key, exp, value, Transcoders.STRING);
+    }
+
+    @Override
+    public <T> void setQ(String key, int exp, T value, Transcoder<T> transcoder) {
+        executeSetQ(Operation.SET_Q, key, exp, value, transcoder);
+    }
+
+    @Override
+    public Promise<Void> touch(String key, int exp) {
+        return sendAndWaitResult((requestId, promise) ->
+                sendTouchOperation(promise, Operation.TOUCH, key, exp, (opCode) -> getTouchPacket(alloc(), requestId, opCode, key, exp)));
+    }
+
+    /**
+     * Добавляет значение, если ключ не существует. Используется {@link CasUpdate} для отсутствующего ключа.
+     */
+    <T> Promise<Void> add(String key, int exp, T value, Transcoder<T> transcoder) {
+        return sendCheckedSet(Operation.ADD, key, exp, value, 0, transcoder(transcoder));
+    }
+
+    /**
+     * Отправляет пакет, если это допускает {@link Admission контроль перегрузки}. Отправка запоминается в таблице
+     * запросов для метрик и времени ответа сервера, ожидание ответа продлевается до истечения времени ожидания
+     * сервера. Запросы, на которые сервер должен ответить, учитываются {@link ServerHealth обнаружением недоступных
+     * серверов}.
+     */
+    @Override
+    public void send(InetSocketAddress server, ByteBuf packet) {
+        if (null != admission && !admission.admit(server, packet, callbacks, isWritable(server))) {
+            return;
+        }
+        int offset = packet.readerIndex() + UDP_HEADER_LENGTH;
+        int opaque = packet.getInt(offset + OPAQUE_OFFSET);
+        byte opCode = packet.getByte(offset + 1);
+        long now = System.nanoTime();
+        callbacks.sent(opaque, server, opCode, now);
+        if (null != timeouts) {
+            callbacks.extend(opaque, now + timeouts.timeout(server));
+        }
+        if (null != health && !Operation.isQuiet(opCode)) {
+            health.sent(server, now);
+        }
+        write(server, packet);
+    }
+
+    @Override
+    public void cancel(ByteBuf packet) {
+        callbacks.remove(packet.getInt(packet.readerIndex() + UDP_HEADER_LENGTH + OPAQUE_OFFSET));
+    }
+
+    /**
+     * Передает пакет транспорту.
+     *
+     * @see Transport#send
+     */
+    abstract void write(InetSocketAddress server, ByteBuf packet);
+
+    /**
+     * @return {@code false}, если буфер исходящих сообщений канала, через который будет отправлен пакет серверу,
+     * переполнен
+     */
+    abstract boolean isWritable(InetSocketAddress server);
+
+    ResponseDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    EventExecutor executor() {
+        return eventLoop();
+    }
+
+    ClientMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Запускает периодическую проверку таймаутов ожидающих ответа запросов. Вызывается реализацией транспорта,
+     * когда его event loop готов к работе.
+     */
+    void scheduleTimeouts() {
+        eventLoop().scheduleAtFixedRate(() -> callbacks.expire(System.nanoTime(), this::expired),
+                timeoutResolution, timeoutResolution, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Отправляет серверу NOOP, минуя стратегии выбора серверов.
+     *
+     * @return обещание, завершающееся при ответе сервера
+     */
+    Promise<Void> noop(InetSocketAddress server) {
+        return sendAndWaitResult((requestId, promise) -> {
+            callbacks.sent(requestId, server, Operation.NOOP, System.nanoTime());
+            write(server, getSimpleKeyPacket(alloc(), requestId, Operation.NOOP, ""));
+        });
+    }
+
+    /**
+     * Отправляет датаграмму пакетного запроса значений. Ожидание ответа завершается при получении ответа на NOOP
+     * либо по таймауту.
+     */
+    void sendBatch(MultiGetRequest.Batch batch, InetSocketAddress server, List<byte[]> keys) {
+        sendAndWaitResult(batch, (requestId, promise) ->
+                send(server, getMultiKeyPacket(alloc(), requestId, Operation.GET_KQ, keys)));
+    }
+
+    /**
+     * Обещание могло быть завершено раньше, например отклонением при перегрузке: такой запрос не считается
+     * истекшим. Таймаут учитывается до завершения обещания, чтобы ожидающие потоки видели его в метриках. Таймаут
+     * сервера учитывается для первого и последнего сервера, которым был отправлен запрос.
+     */
+    private void expired(int requestId, Promise<?> promise) {
+        if (promise.isDone()) {
+            return;
+        }
+        InetSocketAddress first = callbacks.firstServer(requestId);
+        if (null == first) {
+            metrics.requestTimedOut();
+        } else {
+            metrics.requestTimedOut(callbacks.opCode(requestId));
+            metrics.serverTimedOut(first);
+            InetSocketAddress last = callbacks.lastServer(requestId);
+            if (null != last && !last.equals(first)) {
+                metrics.serverTimedOut(last);
+            }
+        }
+        promise.tryFailure(new TimeoutException());
+    }
+
+    /**
+     * Отправляет SET_Q через транспорт потоковой записи, который учитывает серверы, получившие команду.
+     */
+    <T> void sendSetQ(Transport transport, String key, int exp, T value, Transcoder<T> transcoder) {
+        ByteBuf packet = getSetPacket(alloc(), nextRequestId(), Operation.SET_Q, key, exp, value, transcoder(transcoder));
+        commonStrategy.accept(null, transport, key, packet);
+    }
+
+    private <T> void executeSetQ(byte opCode, String key, int exp, T value, Transcoder<T> transcoder) {
+        sendSetOperation(nextRequestId(), opCode, opCode, key, exp, value, transcoder(transcoder));
+    }
+
+    /**
+     * Значения, дописываемые APPEND и PREPEND, не сжимаются: сервер склеивает их с сохраненным значением.
+     */
+    private <T> Transcoder<T> transcoder(Transcoder<T> transcoder) {
+        return null == compression ? transcoder : compression.wrap(transcoder);
+    }
+
+    private int nextRequestId() {
+        return callbacks.nextId();
+    }
+
+    private <V> Promise<V> sendAndWaitResult(RequestSender method) {
+        return sendAndWaitResult(eventLoop().newPromise(), method);
+    }
+
+    private <V> Promise<V> sendAndWaitResult(Promise<V> promise, RequestSender method) {
+        int requestId;
+        try {
+            requestId = null == admission ? callbacks.register(promise) : admission.register(callbacks, promise, eventLoop().inEventLoop());
+        } catch (OverloadedException e) {
+            // Ответы не успевают приходить, новые запросы не отправляются до освобождения таблицы
+            metrics.requestRejected();
+            promise.tryFailure(e);
+            return promise;
+        }
+
+        if (callbacks.isSwept(requestId)) {
+            // Регистрация задержалась, и проверка таймаутов могла пропустить запрос
+            eventLoop().schedule(() -> {
+                Promise<?> expired = callbacks.remove(requestId);
+                if (null != expired) {
+                    expired(requestId, expired);
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+
+        try {
+            method.send(requestId, promise);
+        } catch (Throwable e) {
+            callbacks.remove(requestId);
+            promise.tryFailure(e);
+        }
+
+        return promise;
+    }
+
+    /**
+     * Отправляет запрос на первое зеркало для чтения и записи, версии значений которого возвращает {@link #gets}.
+     */
+    private void sendChecked(Promise<?> promise, String key, ByteBuf packet) {
+        casStrategy.accept(promise, this, key, packet);
+    }
+
+    /**
+     * Выполняет установку значения с проверкой на первом зеркале для чтения и записи и после успешной установки
+     * передает значение остальным зеркалам без проверки.
+     */
+    private <T> Promise<Void> sendCheckedSet(byte opCode, String key, int exp, T value, long cas, Transcoder<T> transcoder) {
+        return sendAndWaitResult((requestId, promise) -> {
+            ByteBuf packet = getSetPacket(alloc(), requestId, opCode, key, exp, value, transcoder, cas);
+            if (mirrors.has(MirrorLocators.Role.REPLICAS)) {
+                ByteBuf replica = withOpCode(alloc(), packet, Operation.SET_Q);
+                replica.setLong(UDP_HEADER_LENGTH + CAS_OFFSET, 0);
+                promise.addListener((Future<Object> future) -> {
+                    if (future.isSuccess()) {
+                        replicaStrategy.accept(null, this, key, replica);
+                    } else {
+                        replica.release();
+                    }
+                });
+            }
+            sendChecked(promise, key, packet);
+        });
+    }
+
+    private <T> void sendAppendOperation(int requestId, byte readOpCode, byte writeOpCode, String key, T value, Transcoder<T> transcoder) {
+        send(readOpCode, writeOpCode, key, (opCode) -> getAppendPacket(alloc(), requestId, opCode, key, value, transcoder));
+    }
+
+    private void sendIncOrDecOperation(int requestId, byte readOpCode, byte writeOpCode, String key, int exp, long incValue, long initialValue) {
+        send(readOpCode, writeOpCode, key, (opCode) -> getIncPacket(alloc(), requestId, opCode, key, exp, incValue, initialValue));
+    }
+
+    private void sendReadSimpleKeyPacketOperation(Promise<?> promise, int requestId, byte readOpCode, String key) {
+        send(promise, readOpCode, key, readStrategy, (opCode) -> getSimpleKeyPacket(alloc(), requestId, opCode, key));
+    }
+
+    private <T> void sendSetOperation(int requestId, byte readOpCode, byte writeOpCode, String key, int exp, T value, Transcoder<T> transcoder) {
+        send(readOpCode, writeOpCode, key, (opCode) -> getSetPacket(alloc(), requestId, opCode, key, exp, value, transcoder));
+    }
+
+    private void send(byte readOpCode, byte writeOpCode, String key, PacketFactory packetCreator) {
+        if (readOpCode == writeOpCode) {
+            send(null, readOpCode, key, commonStrategy, packetCreator);
+            return;
+        }
+        ByteBuf packet = packetCreator.apply(readOpCode);
+        if (mirrors.has(MirrorLocators.Role.WRITE_ONLY)) {
+            // Пакеты отличаются только кодом команды, поэтому ключ и значение кодируются один раз
+            ByteBuf writeOnlyPacket = withOpCode(alloc(), packet, writeOpCode);
+            writeOnlyStrategy.accept(null, this, key, writeOnlyPacket);
+        }
+        readOnWriteStrategy.accept(null, this, key, packet);
+    }
+
+    private void send(Promise<?> promise, byte opCode, String key, ServerStrategy strategy, PacketFactory packetCreator) {
+        strategy.accept(promise, this, key, packetCreator.apply(opCode));
+    }
+
+    /**
+     * Отправляет изменяющий время жизни ключа запрос зеркалам для чтения и записи. У TOUCH нет тихого варианта,
+     * поэтому зеркалам только для записи отправляется TOUCH с opaque {@link PendingRequests#UNTRACKED}: их ответы
+     * отбрасываются, не завершают обещание запроса и не учитываются как опоздавшие.
+     */
+    private void sendTouchOperation(Promise<?> promise, byte readOpCode, String key, int exp, PacketFactory packetCreator) {
+        send(promise, readOpCode, key, readOnWriteStrategy, packetCreator);
+        if (mirrors.has(MirrorLocators.Role.WRITE_ONLY)) {
+            send(null, Operation.TOUCH, key, writeOnlyStrategy, (opCode) -> getTouchPacket(alloc(), PendingRequests.UNTRACKED, opCode, key, exp));
+        }
+    }
+
+    private void sendWriteSimpleKeyPacketOperation(int requestId, byte readOpCode, byte writeOpCode, String key) {
+        send(readOpCode, writeOpCode, key, (opCode) -> getSimpleKeyPacket(alloc(), requestId, opCode, key));
+    }
+}
@@ -0,0 +1,137 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.xtesseract.memcached.ProtocolHelper.OPAQUE_OFFSET;
+import static com.xtesseract.memcached.ProtocolHelper.UDP_HEADER_LENGTH;
+
+/**
+ * Допуск запросов к отправке при перегрузке. Запрос, ожидающий ответа, не отправляется серверу, от которого уже
+ * ожидается слишком много ответов, и в канал, буфер которого переполнен: его обещание сразу завершается
+ * {@link OverloadedException}. Тихие команды в этих случаях отбрасываются.
+ */
+class Admission {
+
+    /**
+     * Доля лимитов, после заполнения которой тихие команды отбрасываются при
+     * {@link ClientBuilder.OverloadPolicy#SHED_QUIET}
+     */
+    private static final int SHED_QUIET_NUMERATOR = 3;
+    private static final int SHED_QUIET_DENOMINATOR = 4;
+
+    private static final long BLOCK_PARK_INTERVAL = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final ClientBuilder.OverloadPolicy policy;
+    private final int maxPendingRequestsPerServer; // 0 - без ограничения
+    private final long blockTimeout; // ns.
+    private final ClientMetrics metrics;
+
+    private final ConcurrentHashMap<InetSocketAddress, AtomicInteger> pendingByServer = new ConcurrentHashMap<>();
+
+    /**
+     * @param blockTimeout время ожидания свободного места в таблице запросов при
+     *                     {@link ClientBuilder.OverloadPolicy#BLOCK} в мс.
+     */
+    Admission(ClientBuilder.OverloadPolicy policy, int maxPendingRequestsPerServer, int blockTimeout, ClientMetrics metrics) {
+        this.policy = policy;
+        this.maxPendingRequestsPerServer = maxPendingRequestsPerServer;
+        this.blockTimeout = TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Регистрирует запрос в таблице. При {@link ClientBuilder.OverloadPolicy#BLOCK} поток, не являющийся event loop
+     * клиента, ожидает освобождения места в таблице не дольше заданного времени.
+     *
+     * @param inEventLoop вызов выполняется в event loop клиента, который нельзя блокировать
+     * @throws OverloadedException если место в таблице не освободилось
+     */
+    int register(PendingRequests callbacks, Promise<?> promise, boolean inEventLoop) {
+        if (ClientBuilder.OverloadPolicy.BLOCK != policy || inEventLoop) {
+            return callbacks.register(promise);
+        }
+
+        long deadline = System.nanoTime() + blockTimeout;
+        while (true) {
+            try {
+                return callbacks.register(promise);
+            } catch (OverloadedException e) {
+                if (System.nanoTime() - deadline >= 0) {
+                    throw e;
+                }
+                // Ячейки освобождаются ответами и таймаутами в event loop
+                LockSupport.parkNanos(BLOCK_PARK_INTERVAL);
+            }
+        }
+    }
+
+    /**
+     * Решает, отправлять ли пакет серверу. Отклоненный пакет освобождается.
+     *
+     * @param writable канал, через который будет отправлен пакет, принимает сообщения
+     * @return {@code true}, если пакет нужно отправить
+     */
+    boolean admit(InetSocketAddress server, ByteBuf packet, PendingRequests callbacks, boolean writable) {
+        int headerIndex = packet.readerIndex() + UDP_HEADER_LENGTH;
+        int opaque = packet.getInt(headerIndex + OPAQUE_OFFSET);
+        boolean quiet = Operation.isQuiet(packet.getByte(headerIndex + 1)) || PendingRequests.UNTRACKED == opaque;
+        Promise<?> promise = quiet ? null : callbacks.get(opaque);
+        if (!quiet && (null == promise || promise.isDone())) {
+            // Запрос уже завершен, например отклонен при отправке на другое зеркало
+            packet.release();
+            return false;
+        }
+        AtomicInteger pending = maxPendingRequestsPerServer > 0 ? pendingByServer.computeIfAbsent(server, s -> new AtomicInteger()) : null;
+
+        if (quiet) {
+            // Ответа на тихую команду никто не ожидает, поэтому при перегрузке она просто не отправляется
+            if (writable && !shedQuiet(callbacks, pending)) {
+                return true;
+            }
+            metrics.requestRejected();
+            packet.release();
+            return false;
+        }
+
+        if (!writable) {
+            return reject(callbacks, opaque, promise, packet, "Channel is not writable, server " + server);
+        }
+        if (null != pending) {
+            if (pending.incrementAndGet() > maxPendingRequestsPerServer) {
+                pending.decrementAndGet();
+                return reject(callbacks, opaque, promise, packet, "Too many pending requests to " + server);
+            }
+            promise.addListener((Future<Object> future) -> pending.decrementAndGet());
+        }
+        return true;
+    }
+
+    private boolean shedQuiet(PendingRequests callbacks, AtomicInteger pending) {
+        if (ClientBuilder.OverloadPolicy.SHED_QUIET != policy) {
+            return false;
+        }
+        if (callbacks.size() * SHED_QUIET_DENOMINATOR >= callbacks.capacity() * SHED_QUIET_NUMERATOR) {
+            return true;
+        }
+        return null != pending && pending.get() * SHED_QUIET_DENOMINATOR >= maxPendingRequestsPerServer * SHED_QUIET_NUMERATOR;
+    }
+
+    /**
+     * Место в таблице освобождается сразу: отклоненный запрос не занимает его до проверки таймаутов.
+     */
+    private boolean reject(PendingRequests callbacks, int opaque, Promise<?> promise, ByteBuf packet, String message) {
+        metrics.requestRejected();
+        packet.release();
+        callbacks.remove(opaque);
+        promise.tryFailure(new OverloadedException(message));
+        return false;
+    }
+}
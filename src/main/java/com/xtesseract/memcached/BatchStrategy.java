@@ -0,0 +1,8 @@
+package com.xtesseract.memcached;
+
+/**
+ * Стратегия распределения ключей пакетного запроса по серверам memcached
+ */
+interface BatchStrategy {
+    void accept(MultiGetRequest<?> request, Transport transport);
+}
@@ -0,0 +1,158 @@
+package com.xtesseract.memcached;
+
+import io.netty.util.concurrent.Future;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Блокирующий фасад {@link Client клиента} для кода, выполняющего запрос в отдельном потоке, в том числе в
+ * виртуальном. Ожидание ответа не использует мониторы: {@link io.netty.util.concurrent.DefaultPromise#await()}
+ * ожидает в {@code synchronized} и закрепляет виртуальный поток за потоком-носителем, а здесь поток паркуется через
+ * {@link java.util.concurrent.locks.LockSupport} и освобождает носитель.
+ * <p/>
+ * Ошибки выполнения команды выбрасываются без обертки: {@link OperationError}, {@link OverloadedException},
+ * {@link TimeoutException}, если сервер не ответил за время ожидания клиента. Тихие команды не ожидают ответа и
+ * вызываются через {@link #client()}.
+ */
+public class BlockingClient {
+
+    private final Client client;
+
+    public BlockingClient(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * @return асинхронный клиент
+     */
+    public Client client() {
+        return client;
+    }
+
+    /**
+     * @see Client#append(String, String)
+     */
+    public void append(String key, String value) throws InterruptedException, TimeoutException {
+        await(client.append(key, value));
+    }
+
+    /**
+     * @see Client#cas(String, int, Object, long, Transcoder)
+     */
+    public <T> void cas(String key, int exp, T value, long cas, Transcoder<T> transcoder) throws InterruptedException, TimeoutException {
+        await(client.cas(key, exp, value, cas, transcoder));
+    }
+
+    /**
+     * @see Client#casUpdate(String, int, Function, Transcoder)
+     */
+    public <T> T casUpdate(String key, int exp, Function<T, T> update, Transcoder<T> transcoder) throws InterruptedException, TimeoutException {
+        return await(client.casUpdate(key, exp, update, transcoder));
+    }
+
+    /**
+     * @see Client#dec(String, int, long, long)
+     */
+    public long dec(String key, int exp, long incValue, long initialValue) throws InterruptedException, TimeoutException {
+        return await(client.dec(key, exp, incValue, initialValue));
+    }
+
+    /**
+     * @see Client#delete(String)
+     */
+    public void delete(String key) throws InterruptedException, TimeoutException {
+        await(client.delete(key));
+    }
+
+    /**
+     * @see Client#gat(String, int, Transcoder)
+     */
+    public <T> T gat(String key, int exp, Transcoder<T> transcoder) throws InterruptedException, TimeoutException {
+        return await(client.gat(key, exp, transcoder));
+    }
+
+    /**
+     * @see Client#get(String)
+     */
+    public String get(String key) throws InterruptedException, TimeoutException {
+        return await(client.get(key));
+    }
+
+    /**
+     * @see Client#get(String, Transcoder)
+     */
+    public <T> T get(String key, Transcoder<T> transcoder) throws InterruptedException, TimeoutException {
+        return await(client.get(key, transcoder));
+    }
+
+    /**
+     * @see Client#getMulti(Collection, Transcoder)
+     */
+    public <T> Map<String, T> getMulti(Collection<String> keys, Transcoder<T> transcoder) throws InterruptedException, TimeoutException {
+        return await(client.getMulti(keys, transcoder));
+    }
+
+    /**
+     * @see Client#gets(String, Transcoder)
+     */
+    public <T> CasValue<T> gets(String key, Transcoder<T> transcoder) throws InterruptedException, TimeoutException {
+        return await(client.gets(key, transcoder));
+    }
+
+    /**
+     * @see Client#inc(String, int, long, long)
+     */
+    public long inc(String key, int exp, long incValue, long initialValue) throws InterruptedException, TimeoutException {
+        return await(client.inc(key, exp, incValue, initialValue));
+    }
+
+    /**
+     * @see Client#prepend(String, String)
+     */
+    public void prepend(String key, String value) throws InterruptedException, TimeoutException {
+        await(client.prepend(key, value));
+    }
+
+    /**
+     * @see Client#set(String, int, String)
+     */
+    public void set(String key, int exp, String value) throws InterruptedException, TimeoutException {
+        await(client.set(key, exp, value));
+    }
+
+    /**
+     * @see Client#set(String, int, Object, Transcoder)
+     */
+    public <T> void set(String key, int exp, T value, Transcoder<T> transcoder) throws InterruptedException, TimeoutException {
+        await(client.set(key, exp, value, transcoder));
+    }
+
+    /**
+     * @see Client#touch(String, int)
+     */
+    public void touch(String key, int exp) throws InterruptedException, TimeoutException {
+        await(client.touch(key, exp));
+    }
+
+    private static <V> V await(Future<V> future) throws InterruptedException, TimeoutException {
+        try {
+            return Futures.toCompletableFuture(future).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw (TimeoutException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.xtesseract.memcached;
+
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Потоковое чтение значений, см. {@link Client#getAll}. Ключи читаются пакетами {@link Client#getMulti}, число
+ * пакетов, ожидающих ответа, ограничено. Состояние изменяется только в event loop клиента.
+ */
+class BulkGet<T> {
+
+    /**
+     * Наибольшее количество ключей в одном пакетном запросе
+     */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private final AbstractClient client;
+    private final Iterator<String> keys;
+    private final Transcoder<T> transcoder;
+    private final BiConsumer<String, T> consumer;
+    private final int batchSize;
+    private final int maxBatches;
+    private final Promise<Void> promise;
+
+    private int pendingBatches;
+
+    /**
+     * @param window количество ключей, ожидающих ответа
+     */
+    BulkGet(AbstractClient client, Iterator<String> keys, Transcoder<T> transcoder, BiConsumer<String, T> consumer, int window) {
+        this.client = client;
+        this.keys = keys;
+        this.transcoder = transcoder;
+        this.consumer = consumer;
+        this.batchSize = Math.min(MAX_BATCH_SIZE, window);
+        this.maxBatches = Math.max(1, window / batchSize);
+        this.promise = client.eventLoop().newPromise();
+    }
+
+    Promise<Void> start() {
+        client.eventLoop().execute(this::pump);
+        return promise;
+    }
+
+    private void pump() {
+        try {
+            while (pendingBatches < maxBatches && !promise.isDone() && keys.hasNext()) {
+                List<String> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && keys.hasNext()) {
+                    batch.add(keys.next());
+                }
+                ++pendingBatches;
+                client.getMulti(batch, transcoder).addListener((Future<Map<String, T>> future) -> onBatch(future));
+            }
+            if (0 == pendingBatches && !keys.hasNext()) {
+                promise.trySuccess(null);
+            }
+        } catch (RuntimeException e) {
+            promise.tryFailure(e);
+        }
+    }
+
+    private void onBatch(Future<Map<String, T>> future) {
+        --pendingBatches;
+        if (!future.isSuccess()) {
+            promise.tryFailure(future.cause());
+            return;
+        }
+        try {
+            future.getNow().forEach(consumer);
+        } catch (RuntimeException e) {
+            promise.tryFailure(e);
+            return;
+        }
+        pump();
+    }
+}
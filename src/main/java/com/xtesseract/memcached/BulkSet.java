@@ -0,0 +1,138 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Потоковая запись значений, см. {@link Client#setAll}. Команды SET_Q направляются стратегией записи через этот
+ * транспорт, который считает неподтвержденные команды каждого сервера и после {@code barrierInterval} команд
+ * отправляет серверу NOOP. Сервер обрабатывает запросы по порядку, поэтому ответ на NOOP подтверждает все команды,
+ * отправленные до него. Состояние изменяется только в event loop клиента.
+ */
+class BulkSet<T> implements Transport {
+
+    /**
+     * Неподтвержденные команды сервера
+     */
+    private static final class Window {
+        private int unacknowledged;
+        private int sinceBarrier;
+    }
+
+    private final AbstractClient client;
+    private final Iterator<? extends Map.Entry<String, T>> entries;
+    private final int exp;
+    private final Transcoder<T> transcoder;
+    private final int window;
+    private final int barrierInterval;
+    private final Promise<Long> promise;
+
+    private final Map<InetSocketAddress, Window> windows = new HashMap<>();
+    // Количество серверов, окно которых заполнено
+    private int full;
+    private int pendingBarriers;
+    private long written;
+
+    /**
+     * @param window количество неподтвержденных команд сервера, при котором запись приостанавливается
+     */
+    BulkSet(AbstractClient client, Iterator<? extends Map.Entry<String, T>> entries, int exp, Transcoder<T> transcoder, int window) {
+        this.client = client;
+        this.entries = entries;
+        this.exp = exp;
+        this.transcoder = transcoder;
+        this.window = window;
+        this.barrierInterval = Math.max(1, window / 4);
+        this.promise = client.eventLoop().newPromise();
+    }
+
+    Promise<Long> start() {
+        client.eventLoop().execute(this::pump);
+        return promise;
+    }
+
+    @Override
+    public ByteBufAllocator alloc() {
+        return client.alloc();
+    }
+
+    @Override
+    public EventLoop eventLoop() {
+        return client.eventLoop();
+    }
+
+    @Override
+    public void cancel(ByteBuf packet) {
+        client.cancel(packet);
+    }
+
+    @Override
+    public void send(InetSocketAddress server, ByteBuf packet) {
+        client.send(server, packet);
+
+        Window serverWindow = windows.computeIfAbsent(server, s -> new Window());
+        if (++serverWindow.unacknowledged == window) {
+            ++full;
+        }
+        if (++serverWindow.sinceBarrier >= barrierInterval) {
+            barrier(server, serverWindow);
+        }
+    }
+
+    /**
+     * Берет значения из итератора, пока окна серверов не заполнены.
+     */
+    private void pump() {
+        try {
+            while (0 == full && !promise.isDone() && entries.hasNext()) {
+                Map.Entry<String, T> entry = entries.next();
+                client.sendSetQ(this, entry.getKey(), exp, entry.getValue(), transcoder);
+                ++written;
+            }
+            if (promise.isDone() || entries.hasNext()) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            promise.tryFailure(e);
+            return;
+        }
+
+        // Значения закончились, подтверждаются последние команды
+        windows.forEach((server, serverWindow) -> {
+            if (serverWindow.sinceBarrier > 0) {
+                barrier(server, serverWindow);
+            }
+        });
+        if (0 == pendingBarriers) {
+            promise.trySuccess(written);
+        }
+    }
+
+    private void barrier(InetSocketAddress server, Window serverWindow) {
+        int covered = serverWindow.sinceBarrier;
+        serverWindow.sinceBarrier = 0;
+        ++pendingBarriers;
+        client.noop(server).addListener((Future<Void> future) -> {
+            --pendingBarriers;
+            if (!future.isSuccess()) {
+                // Сервер не успевает отвечать или недоступен
+                promise.tryFailure(future.cause());
+                return;
+            }
+            boolean wasFull = serverWindow.unacknowledged >= window;
+            serverWindow.unacknowledged -= covered;
+            if (wasFull && serverWindow.unacknowledged < window) {
+                --full;
+            }
+            pump();
+        });
+    }
+}
@@ -0,0 +1,113 @@
+package com.xtesseract.memcached;
+
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Оптимистичное изменение значения: чтение с версией, вычисление нового значения и установка с проверкой версии.
+ * Если значение изменили между чтением и установкой, попытка повторяется после случайной паузы, верхняя граница
+ * которой удваивается с каждой попыткой, чтобы конкурирующие клиенты не повторяли попытки одновременно.
+ */
+class CasUpdate<T> implements Runnable {
+
+    static final int MAX_ATTEMPTS = 10;
+
+    private static final long MIN_BACKOFF = TimeUnit.MILLISECONDS.toMicros(1);
+    private static final long MAX_BACKOFF = TimeUnit.MILLISECONDS.toMicros(100);
+
+    private final AbstractClient client;
+    private final String key;
+    private final int exp;
+    private final Function<T, T> update;
+    private final Transcoder<T> transcoder;
+    private final Promise<T> promise;
+
+    private int attempt;
+
+    CasUpdate(AbstractClient client, String key, int exp, Function<T, T> update, Transcoder<T> transcoder) {
+        this.client = client;
+        this.key = key;
+        this.exp = exp;
+        this.update = update;
+        this.transcoder = transcoder;
+        this.promise = client.eventLoop().newPromise();
+    }
+
+    Promise<T> start() {
+        run();
+        return promise;
+    }
+
+    /**
+     * Выполняет очередную попытку.
+     */
+    @Override
+    public void run() {
+        client.gets(key, transcoder).addListener((Future<CasValue<T>> future) -> read(future));
+    }
+
+    private void read(Future<CasValue<T>> future) {
+        T current;
+        long cas;
+        if (future.isSuccess()) {
+            current = future.getNow().getValue();
+            cas = future.getNow().getCas();
+        } else if (isStatus(future.cause(), OperationError.KEY_NOT_FOUND)) {
+            current = null;
+            cas = 0;
+        } else {
+            promise.tryFailure(future.cause());
+            return;
+        }
+
+        T updated;
+        try {
+            updated = update.apply(current);
+        } catch (Throwable e) {
+            ReferenceCountUtil.release(current);
+            promise.tryFailure(e);
+            return;
+        }
+        // Функция может вернуть тот же объект
+        if (current != updated) {
+            ReferenceCountUtil.release(current);
+        }
+        if (null == updated) {
+            promise.trySuccess(null);
+            return;
+        }
+
+        // Отсутствующий ключ добавляется, чтобы одновременное добавление другим клиентом не было перезаписано
+        Promise<Void> write = 0 == cas ? client.add(key, exp, updated, transcoder) : client.cas(key, exp, updated, cas, transcoder);
+        write.addListener((Future<Void> f) -> written(f, updated));
+    }
+
+    private void written(Future<Void> future, T updated) {
+        if (future.isSuccess()) {
+            if (!promise.trySuccess(updated)) {
+                ReferenceCountUtil.release(updated);
+            }
+            return;
+        }
+
+        ReferenceCountUtil.release(updated);
+        Throwable cause = future.cause();
+        boolean conflict = isStatus(cause, OperationError.KEY_EXISTS) || isStatus(cause, OperationError.KEY_NOT_FOUND);
+        if (!conflict || ++attempt >= MAX_ATTEMPTS) {
+            promise.tryFailure(cause);
+            return;
+        }
+
+        long backoff = Math.min(MAX_BACKOFF, MIN_BACKOFF << attempt);
+        client.eventLoop().schedule(this, 1 + ThreadLocalRandom.current().nextLong(backoff), TimeUnit.MICROSECONDS);
+    }
+
+    private static boolean isStatus(Throwable cause, int status) {
+        return cause instanceof OperationError && ((OperationError) cause).getStatus() == status;
+    }
+}
@@ -0,0 +1,35 @@
+package com.xtesseract.memcached;
+
+/**
+ * Значение вместе с его версией на сервере.
+ *
+ * @param <T> тип значения
+ * @see Client#gets(String, Transcoder)
+ * @see Client#cas(String, int, Object, long, Transcoder)
+ */
+public class CasValue<T> {
+
+    private final T value;
+    private final long cas;
+
+    public CasValue(T value, long cas) {
+        this.value = value;
+        this.cas = cas;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return версия значения, которая меняется при каждом изменении значения на сервере
+     */
+    public long getCas() {
+        return cas;
+    }
+
+    @Override
+    public String toString() {
+        return "CasValue{value=" + value + ", cas=" + cas + '}';
+    }
+}
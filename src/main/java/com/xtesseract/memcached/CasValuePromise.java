@@ -0,0 +1,33 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * Обещание значения вместе с его версией
+ */
+class CasValuePromise<T> extends ValuePromise<CasValue<T>> {
+
+    private final Transcoder<T> transcoder;
+
+    CasValuePromise(EventExecutor executor, Transcoder<T> transcoder) {
+        // Значение декодируется вместе с версией
+        super(executor, null);
+        this.transcoder = transcoder;
+    }
+
+    @Override
+    void complete(int flags, long cas, ByteBuf body) {
+        T value;
+        try {
+            value = transcoder.decode(flags, body);
+        } catch (Throwable e) {
+            tryFailure(e);
+            return;
+        }
+        if (!trySuccess(new CasValue<>(value, cas))) {
+            ReferenceCountUtil.release(value);
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package com.xtesseract.memcached;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.util.concurrent.Promise;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
 /**
  * Простой асинхронный memcached клиент.
  *
@@ -18,6 +25,103 @@ public interface Client {
      */
     void addQ(String key, int exp, String value);
 
+    /**
+     * Добавляет значение в кеш если оно еще не задано. Подтверждения успешного выполнения не дожидается.
+     *
+     * @param key        ключ с которым должно быть добавлено значение
+     * @param exp        время жизни значения в сек.
+     * @param value      добавляеое значение
+     * @param transcoder преобразователь значения
+     */
+    <T> void addQ(String key, int exp, T value, Transcoder<T> transcoder);
+
+    default void addQ(String key, int exp, byte[] value) {
+        addQ(key, exp, value, Transcoders.BYTES);
+    }
+
+    default void addQ(String key, int exp, ByteBuf value) {
+        addQ(key, exp, value, Transcoders.BYTE_BUF);
+    }
+
+    /**
+     * Дописывает значение в конец существующего. Флаги значения не изменяются.
+     *
+     * @param key   ключ, значение которого изменяется
+     * @param value дописываемое значение
+     * @return обещание, завершаемое {@link OperationError} со статусом {@link OperationError#NOT_STORED}, если
+     * ключ не существует
+     */
+    default Promise<Void> append(String key, String value) {
+        return append(key, value, Transcoders.STRING);
+    }
+
+    /**
+     * Дописывает значение в конец существующего.
+     *
+     * @param transcoder преобразователь значения, возвращаемые им флаги игнорируются
+     * @see #append(String, String)
+     */
+    <T> Promise<Void> append(String key, T value, Transcoder<T> transcoder);
+
+    /**
+     * Дописывает значение в конец существующего. Подтверждения успешного выполнения не дожидается.
+     *
+     * @param key   ключ, значение которого изменяется
+     * @param value дописываемое значение
+     */
+    default void appendQ(String key, String value) {
+        appendQ(key, value, Transcoders.STRING);
+    }
+
+    /**
+     * Дописывает значение в конец существующего. Подтверждения успешного выполнения не дожидается.
+     *
+     * @param transcoder преобразователь значения, возвращаемые им флаги игнорируются
+     * @see #appendQ(String, String)
+     */
+    <T> void appendQ(String key, T value, Transcoder<T> transcoder);
+
+    /**
+     * Устанавливает значение, если его версия на сервере не изменилась с момента чтения {@link #gets}. Если версия
+     * изменилась, обещание завершается {@link OperationError} со статусом {@link OperationError#KEY_EXISTS}, если
+     * ключ удален - со статусом {@link OperationError#KEY_NOT_FOUND}.
+     * <p>
+     * При зеркалировании версия проверяется на первом зеркале для чтения и записи, остальным зеркалам значение
+     * передается после успешной установки без проверки версии.
+     *
+     * @param key   ключ, значение которого изменяется
+     * @param exp   время жизни значения в сек.
+     * @param value устанавливаемое значение
+     * @param cas   версия значения, полученная {@link #gets}
+     * @return
+     */
+    default Promise<Void> cas(String key, int exp, String value, long cas) {
+        return cas(key, exp, value, cas, Transcoders.STRING);
+    }
+
+    /**
+     * Устанавливает значение, если его версия на сервере не изменилась с момента чтения {@link #gets}.
+     *
+     * @param transcoder преобразователь значения
+     * @see #cas(String, int, String, long)
+     */
+    <T> Promise<Void> cas(String key, int exp, T value, long cas, Transcoder<T> transcoder);
+
+    /**
+     * Изменяет значение функцией {@code update}: читает значение с версией, вычисляет новое и устанавливает его
+     * {@link #cas}. Если значение успели изменить, попытка повторяется после паузы, растущей с каждой попыткой.
+     * Отсутствующий ключ передается в функцию как {@code null} и добавляется, если его еще никто не добавил.
+     *
+     * @param key        ключ, значение которого изменяется
+     * @param exp        время жизни значения в сек.
+     * @param update     вычисляет новое значение по текущему, может вызываться несколько раз. Если возвращает
+     *                   {@code null}, значение не изменяется
+     * @param transcoder преобразователь значения
+     * @return установленное значение, либо {@link OperationError} со статусом {@link OperationError#KEY_EXISTS},
+     * если попытки исчерпаны
+     */
+    <T> Promise<T> casUpdate(String key, int exp, Function<T, T> update, Transcoder<T> transcoder);
+
     /**
      * Уменьшает значение в кеше на 1.
      *
@@ -69,6 +173,109 @@ public interface Client {
      */
     Promise<String> get(String key);
 
+    /**
+     * Возвращает значение соответствующее ключу.
+     *
+     * @param key        ключ получемого значения
+     * @param transcoder преобразователь значения, например, {@link Transcoders#BYTES}
+     * @return значение ключа
+     */
+    <T> Promise<T> get(String key, Transcoder<T> transcoder);
+
+    default Promise<Void> getAll(Iterator<String> keys, BiConsumer<String, String> consumer) {
+        return getAll(keys, Transcoders.STRING, consumer);
+    }
+
+    /**
+     * Читает значения большого количества ключей пакетными запросами {@link #getMulti}. Ключи берутся из итератора
+     * по мере получения ответов, так что ожидают ответа не больше {@link ClientBuilder#setBulkWindow окна} ключей.
+     * Итератор и {@code consumer} вызываются в event loop клиента и не должны блокироваться.
+     *
+     * @param keys       ключи получаемых значений
+     * @param transcoder преобразователь значений
+     * @param consumer   получает значения найденных ключей
+     * @return обещание, завершаемое после обработки всех ключей
+     */
+    <T> Promise<Void> getAll(Iterator<String> keys, Transcoder<T> transcoder, BiConsumer<String, T> consumer);
+
+    /**
+     * Возвращает значения соответствующие ключам. Ключи одного сервера запрашиваются минимальным количеством
+     * датаграмм. Ключи, которые отсутствуют в кеше или ответ по которым не был получен, в результат не попадают.
+     *
+     * @param keys ключи получаемых значений
+     * @return значения найденных ключей
+     */
+    Promise<Map<String, String>> getMulti(Collection<String> keys);
+
+    /**
+     * Возвращает значения соответствующие ключам.
+     *
+     * @param keys       ключи получаемых значений
+     * @param transcoder преобразователь значений
+     * @return значения найденных ключей
+     * @see #getMulti(java.util.Collection)
+     */
+    <T> Promise<Map<String, T>> getMulti(Collection<String> keys, Transcoder<T> transcoder);
+
+    /**
+     * Возвращает значение и устанавливает новое время жизни ключа. В отличие от пары {@link #get} и {@link #set}
+     * значение не передается серверу повторно.
+     *
+     * @param key ключ получаемого значения
+     * @param exp новое время жизни значения в сек.
+     * @return значение ключа, либо {@link OperationError} со статусом {@link OperationError#KEY_NOT_FOUND}
+     */
+    default Promise<String> gat(String key, int exp) {
+        return gat(key, exp, Transcoders.STRING);
+    }
+
+    /**
+     * Возвращает значение и устанавливает новое время жизни ключа.
+     *
+     * @param transcoder преобразователь значения
+     * @see #gat(String, int)
+     */
+    <T> Promise<T> gat(String key, int exp, Transcoder<T> transcoder);
+
+    /**
+     * Возвращает значение и устанавливает новое время жизни ключа. В отличие от {@link #gat} отсутствие ключа не
+     * является ошибкой: сервер не отвечает на промах, и обещание завершается {@code null}.
+     *
+     * @param key ключ получаемого значения
+     * @param exp новое время жизни значения в сек.
+     * @return значение ключа или {@code null}, если ключ не существует
+     */
+    default Promise<String> gatQ(String key, int exp) {
+        return gatQ(key, exp, Transcoders.STRING);
+    }
+
+    /**
+     * Возвращает значение и устанавливает новое время жизни ключа.
+     *
+     * @param transcoder преобразователь значения
+     * @see #gatQ(String, int)
+     */
+    <T> Promise<T> gatQ(String key, int exp, Transcoder<T> transcoder);
+
+    /**
+     * Возвращает значение вместе с его версией для последующего {@link #cas}. При зеркалировании значение читается
+     * с первого зеркала для чтения и записи.
+     *
+     * @param key ключ получемого значения
+     * @return значение ключа и его версия
+     */
+    default Promise<CasValue<String>> gets(String key) {
+        return gets(key, Transcoders.STRING);
+    }
+
+    /**
+     * Возвращает значение вместе с его версией для последующего {@link #cas}.
+     *
+     * @param transcoder преобразователь значения
+     * @see #gets(String)
+     */
+    <T> Promise<CasValue<T>> gets(String key, Transcoder<T> transcoder);
+
     /**
      * Увеличивает значение в кеше на 1.
      *
@@ -97,6 +304,44 @@ public interface Client {
      */
     void incQ(String key, int exp, long incValue, long initialValue);
 
+    /**
+     * Дописывает значение в начало существующего. Флаги значения не изменяются.
+     *
+     * @param key   ключ, значение которого изменяется
+     * @param value дописываемое значение
+     * @return обещание, завершаемое {@link OperationError} со статусом {@link OperationError#NOT_STORED}, если
+     * ключ не существует
+     */
+    default Promise<Void> prepend(String key, String value) {
+        return prepend(key, value, Transcoders.STRING);
+    }
+
+    /**
+     * Дописывает значение в начало существующего.
+     *
+     * @param transcoder преобразователь значения, возвращаемые им флаги игнорируются
+     * @see #prepend(String, String)
+     */
+    <T> Promise<Void> prepend(String key, T value, Transcoder<T> transcoder);
+
+    /**
+     * Дописывает значение в начало существующего. Подтверждения успешного выполнения не дожидается.
+     *
+     * @param key   ключ, значение которого изменяется
+     * @param value дописываемое значение
+     */
+    default void prependQ(String key, String value) {
+        prependQ(key, value, Transcoders.STRING);
+    }
+
+    /**
+     * Дописывает значение в начало существующего. Подтверждения успешного выполнения не дожидается.
+     *
+     * @param transcoder преобразователь значения, возвращаемые им флаги игнорируются
+     * @see #prependQ(String, String)
+     */
+    <T> void prependQ(String key, T value, Transcoder<T> transcoder);
+
     /**
      * Заменяет значение. Если ранее значения не было установлено, то ничего не делает. Подтверждения успешного
      * выполнения не дожидается.
@@ -107,6 +352,25 @@ public interface Client {
      */
     void replaceQ(String key, int exp, String value);
 
+    /**
+     * Заменяет значение. Если ранее значения не было установлено, то ничего не делает. Подтверждения успешного
+     * выполнения не дожидается.
+     *
+     * @param key        ключ, значение которого изменяется
+     * @param exp        exp время жизни значения в сек.
+     * @param value      устанавливаемое значение
+     * @param transcoder преобразователь значения
+     */
+    <T> void replaceQ(String key, int exp, T value, Transcoder<T> transcoder);
+
+    default void replaceQ(String key, int exp, byte[] value) {
+        replaceQ(key, exp, value, Transcoders.BYTES);
+    }
+
+    default void replaceQ(String key, int exp, ByteBuf value) {
+        replaceQ(key, exp, value, Transcoders.BYTE_BUF);
+    }
+
     /**
      * Устанавливает значение.
      *
@@ -117,6 +381,43 @@ public interface Client {
      */
     Promise<Void> set(String key, int exp, String value);
 
+    /**
+     * Устанавливает значение.
+     *
+     * @param key        ключ, значение которого изменяется
+     * @param exp        exp время жизни значения в сек.
+     * @param value      устанавливаемое значение
+     * @param transcoder преобразователь значения
+     * @return
+     */
+    <T> Promise<Void> set(String key, int exp, T value, Transcoder<T> transcoder);
+
+    default Promise<Void> set(String key, int exp, byte[] value) {
+        return set(key, exp, value, Transcoders.BYTES);
+    }
+
+    default Promise<Void> set(String key, int exp, ByteBuf value) {
+        return set(key, exp, value, Transcoders.BYTE_BUF);
+    }
+
+    default Promise<Long> setAll(Iterator<? extends Map.Entry<String, String>> entries, int exp) {
+        return setAll(entries, exp, Transcoders.STRING);
+    }
+
+    /**
+     * Записывает большое количество значений тихими командами SET_Q. Каждому серверу после нескольких команд
+     * отправляется NOOP, ответ на который подтверждает обработку предыдущих команд. Значения берутся из итератора,
+     * пока ни у одного сервера не накопилось {@link ClientBuilder#setBulkWindow окно} неподтвержденных команд,
+     * поэтому запись не обгоняет серверы. Ошибки отдельных команд не возвращаются, как и у {@link #setQ}. Итератор
+     * вызывается в event loop клиента и не должен блокироваться.
+     *
+     * @param entries    ключи и значения
+     * @param exp        время жизни значений в сек.
+     * @param transcoder преобразователь значений
+     * @return обещание, завершаемое количеством записанных значений после подтверждения всех команд
+     */
+    <T> Promise<Long> setAll(Iterator<? extends Map.Entry<String, T>> entries, int exp, Transcoder<T> transcoder);
+
     /**
      * Устанавливает значение. Подтверждения успешного выполнения не дожидается.
      *
@@ -125,4 +426,32 @@ public interface Client {
      * @param value устанавливаемое значение
      */
     void setQ(String key, int exp, String value);
+
+    /**
+     * Устанавливает значение. Подтверждения успешного выполнения не дожидается.
+     *
+     * @param key        ключ, значение которого изменяется
+     * @param exp        exp время жизни значения в сек.
+     * @param value      устанавливаемое значение
+     * @param transcoder преобразователь значения
+     */
+    <T> void setQ(String key, int exp, T value, Transcoder<T> transcoder);
+
+    default void setQ(String key, int exp, byte[] value) {
+        setQ(key, exp, value, Transcoders.BYTES);
+    }
+
+    default void setQ(String key, int exp, ByteBuf value) {
+        setQ(key, exp, value, Transcoders.BYTE_BUF);
+    }
+
+    /**
+     * Устанавливает новое время жизни ключа, не передавая значение.
+     *
+     * @param key ключ, время жизни которого изменяется
+     * @param exp новое время жизни значения в сек.
+     * @return обещание, завершаемое {@link OperationError} со статусом {@link OperationError#KEY_NOT_FOUND}, если
+     * ключ не существует
+     */
+    Promise<Void> touch(String key, int exp);
 }
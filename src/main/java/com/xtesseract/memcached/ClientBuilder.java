@@ -1,18 +1,24 @@
 package com.xtesseract.memcached;
 
+import com.xtesseract.memcached.MirrorLocators.Role;
+
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.DatagramPacket;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
 import io.netty.util.concurrent.ScheduledFuture;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Утилитарный класс для конструирования {@link com.xtesseract.memcached.Client}
@@ -20,12 +26,26 @@ import java.util.concurrent.atomic.AtomicReference;
 public class ClientBuilder {
 
     public enum ReadStrategy {
-        SHARD, RETRY_ON_FAIL
+        SHARD, RETRY_ON_FAIL, HEDGED
+    }
+
+    public enum Protocol {
+        UDP, TCP
+    }
+
+    public enum OverloadPolicy {
+        FAIL_FAST, BLOCK, SHED_QUIET
     }
 
-    private static final EventLoopGroup EVENT_LOOP_GROUP = new NioEventLoopGroup();
+    private static final EventLoopGroup EVENT_LOOP_GROUP = Transports.newEventLoopGroup();
 
     private int timeout = 50;
+    private int timeoutResolution = 10;
+    private int minTimeout; // 0 - время ожидания не адаптируется
+    private Map<InetSocketAddress, Integer> mirrorTimeouts = new HashMap<>();
+    private int maxDatagramSize = ProtocolHelper.DEFAULT_MAX_DATAGRAM_SIZE;
+    private int maxReassemblyBytes = 4 * 1024 * 1024;
+    private int maxPendingRequests = 64 * 1024;
 
     private EventLoopGroup eventLoopGroup = EVENT_LOOP_GROUP;
 
@@ -36,6 +56,35 @@ public class ClientBuilder {
     private int retryOnFailNumber = -1;
     private int retryOnFailTimeout;
 
+    private Protocol readProtocol = Protocol.UDP;
+    private Protocol writeProtocol = Protocol.UDP;
+    private int connectionsPerServer = 1;
+    private int datagramChannels = 1;
+
+    private Topology topology; // null - зеркала, добавленные в построитель
+
+    private Function<List<InetSocketAddress>, KeyLocator> keyLocatorFactory = KetamaKeyLocator::new;
+
+    private ClientMetrics metrics = ClientMetrics.NONE;
+
+    private boolean coalesceGets;
+
+    private OverloadPolicy overloadPolicy;
+    private int maxPendingRequestsPerServer;
+    private int overloadBlockTimeout;
+
+    private int failureThreshold; // 0 - недоступные серверы не исключаются
+    private int probeInterval;
+
+    private int compressionThreshold;
+    private Compressor compressor; // null - значения не сжимаются
+
+    private int bulkWindow = 1024;
+
+    private int nearCacheEntries;
+    private long nearCacheBytes;
+    private int nearCacheTtl;
+
     /**
      * Добавляет зеркало которое будет использоваться для чтения и записи. Данные будут шардироваться по серверам зеркала.
      *
@@ -47,6 +96,33 @@ public class ClientBuilder {
         return this;
     }
 
+    /**
+     * Добавляет зеркало для чтения и записи со своим временем ожидания ответа, например, расположенное в другом
+     * датацентре.
+     *
+     * @param servers список серверов
+     * @param timeout время ожидания ответа серверов зеркала в мс., в адаптивном режиме - максимальное
+     * @return
+     * @see #setTimeout(int)
+     */
+    public ClientBuilder addReadWriteMirror(List<InetSocketAddress> servers, int timeout) {
+        setMirrorTimeout(servers, timeout);
+        return addReadWriteMirror(servers);
+    }
+
+    /**
+     * Устанавливает изменяемый список зеркал. Клиент направляет запросы по текущим зеркалам топологии, после
+     * {@link Topology#update замены} зеркал клиент не пересоздается, и ожидающие ответа запросы не теряются. Зеркала,
+     * добавленные в построитель, при этом не используются.
+     *
+     * @param topology зеркала, например, обновляемые {@link TopologyWatcher}
+     * @return
+     */
+    public ClientBuilder setTopology(Topology topology) {
+        this.topology = topology;
+        return this;
+    }
+
     /**
      * Добавляет зеркало которое будет использоваться только для записи. Данные будут шардироваться по серверам зеркала.
      *
@@ -58,13 +134,29 @@ public class ClientBuilder {
         return this;
     }
 
+    /**
+     * Добавляет зеркало только для записи со своим временем ожидания ответа.
+     *
+     * @param servers список серверов
+     * @param timeout время ожидания ответа серверов зеркала в мс., в адаптивном режиме - максимальное
+     * @return
+     * @see #addReadWriteMirror(List, int)
+     */
+    public ClientBuilder addWriteOnlyMirror(List<InetSocketAddress> servers, int timeout) {
+        setMirrorTimeout(servers, timeout);
+        return addWriteOnlyMirror(servers);
+    }
+
     public Client build() {
-        return new UdpClient(timeout,
-                eventLoopGroup,
-                readStrategy(),
-                shardStrategy(readWriteMirrors),
-                shardStrategy(writeOnlyMirrors),
-                shardStrategy(concat(readWriteMirrors, writeOnlyMirrors)));
+        Client client = build(readProtocol);
+        if (!readProtocol.equals(writeProtocol)) {
+            client = new CompositeClient(client, build(writeProtocol));
+        }
+        if (nearCacheEntries > 0) {
+            NearCache cache = new NearCache(nearCacheEntries, nearCacheBytes, TimeUnit.MILLISECONDS.toNanos(nearCacheTtl));
+            return new NearCacheClient(client, cache, metrics, eventLoopGroup, maxTimeout() + 2L * timeoutResolution, timeoutResolution);
+        }
+        return client;
     }
 
     public ClientBuilder eventLoopGroup(EventLoopGroup eventLoopGroup) {
@@ -83,6 +175,312 @@ public class ClientBuilder {
         return this;
     }
 
+    /**
+     * Включает адаптивное время ожидания ответа: для каждого сервера оно вычисляется по сглаженному времени ответа
+     * и его отклонению, как RTO в TCP, и ограничивается снизу {@code minTimeout}, а сверху временем ожидания,
+     * заданным {@link #setTimeout(int)} или для зеркала. Повторные запросы {@link #retryOnFail(int, int)}
+     * отправляются по истечении времени ожидания сервера, не ответившего на предыдущий запрос.
+     *
+     * @param minTimeout минимальное время ожидания в мс.
+     * @return
+     */
+    public ClientBuilder adaptiveTimeouts(int minTimeout) {
+        assert minTimeout > 0;
+
+        this.minTimeout = minTimeout;
+        return this;
+    }
+
+    /**
+     * Устанавливает период проверки таймаутов. Запрос завершается с {@link java.util.concurrent.TimeoutException}
+     * не позже, чем через время ожидания и два периода проверки.
+     *
+     * @param timeoutResolution период проверки в мс.
+     * @return
+     */
+    public ClientBuilder setTimeoutResolution(int timeoutResolution) {
+        assert timeoutResolution > 0;
+
+        this.timeoutResolution = timeoutResolution;
+        return this;
+    }
+
+    /**
+     * Устанавливает максимальный размер датаграммы пакетного запроса
+     *
+     * @param maxDatagramSize размер датаграммы в байтах
+     * @return
+     */
+    public ClientBuilder setMaxDatagramSize(int maxDatagramSize) {
+        assert maxDatagramSize > 0;
+
+        this.maxDatagramSize = maxDatagramSize;
+        return this;
+    }
+
+    /**
+     * Устанавливает максимальный объем памяти, занимаемой ответами, которые получены не полностью. Ответы,
+     * занимающие несколько датаграмм, собираются до получения всех частей или истечения таймаута.
+     *
+     * @param maxReassemblyBytes объем памяти в байтах
+     * @return
+     */
+    public ClientBuilder setMaxReassemblyBytes(int maxReassemblyBytes) {
+        assert maxReassemblyBytes > 0;
+
+        this.maxReassemblyBytes = maxReassemblyBytes;
+        return this;
+    }
+
+    /**
+     * Устанавливает максимальное количество запросов, ожидающих ответа. Запросы сверх этого количества сразу
+     * завершаются с {@link OverloadedException}.
+     *
+     * @param maxPendingRequests количество запросов, округляется вверх до степени двойки
+     * @return
+     */
+    public ClientBuilder setMaxPendingRequests(int maxPendingRequests) {
+        assert maxPendingRequests > 0;
+
+        this.maxPendingRequests = maxPendingRequests;
+        return this;
+    }
+
+    /**
+     * Устанавливает максимальное количество запросов, ожидающих ответа от одного сервера. Запросы к серверу сверх
+     * этого количества сразу завершаются с {@link OverloadedException}, тихие команды не отправляются. Если политика
+     * перегрузки не задана, используется {@link OverloadPolicy#FAIL_FAST}.
+     *
+     * @param maxPendingRequestsPerServer количество запросов
+     * @return
+     */
+    public ClientBuilder setMaxPendingRequestsPerServer(int maxPendingRequestsPerServer) {
+        assert maxPendingRequestsPerServer > 0;
+
+        this.maxPendingRequestsPerServer = maxPendingRequestsPerServer;
+        return this;
+    }
+
+    /**
+     * Включает контроль перегрузки: запросы, которые нельзя отправить из-за превышения ограничений количества
+     * ожидающих ответа запросов или из-за переполнения буфера исходящих сообщений канала, сразу завершаются с
+     * {@link OverloadedException}, а тихие команды не отправляются.
+     *
+     * @return
+     */
+    public ClientBuilder failOnOverload() {
+        this.overloadPolicy = OverloadPolicy.FAIL_FAST;
+        return this;
+    }
+
+    /**
+     * Включает контроль перегрузки, как {@link #failOnOverload()}, но при заполненной таблице запросов поток,
+     * вызвавший клиента, ожидает освобождения места. Потоки event loop клиента не блокируются.
+     *
+     * @param timeout максимальное время ожидания в мс.
+     * @return
+     */
+    public ClientBuilder blockOnOverload(int timeout) {
+        assert timeout > 0;
+
+        this.overloadPolicy = OverloadPolicy.BLOCK;
+        this.overloadBlockTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * Включает контроль перегрузки, как {@link #failOnOverload()}, но тихие команды перестают отправляться уже при
+     * заполнении трех четвертей таблицы запросов или ограничения запросов к серверу, оставляя место запросам,
+     * ответа на которые ожидают.
+     *
+     * @return
+     */
+    public ClientBuilder shedQuietOnOverload() {
+        this.overloadPolicy = OverloadPolicy.SHED_QUIET;
+        return this;
+    }
+
+    /**
+     * Устанавливает окно потоковых операций {@link Client#setAll} и {@link Client#getAll}: количество команд записи,
+     * отправленных одному серверу без подтверждения, и количество ключей, ожидающих ответа при чтении.
+     *
+     * @param bulkWindow количество команд, по умолчанию 1024
+     * @return
+     */
+    public ClientBuilder setBulkWindow(int bulkWindow) {
+        assert bulkWindow > 0;
+
+        this.bulkWindow = bulkWindow;
+        return this;
+    }
+
+    /**
+     * Устанавливает получателя событий для сбора метрик, например, {@link DefaultClientMetrics}.
+     *
+     * @param metrics получатель событий, по умолчанию метрики не собираются
+     * @return
+     */
+    public ClientBuilder setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Устанавливает способ распределения ключей по серверам зеркала, например, {@code ModuloKeyLocator::new}.
+     *
+     * @param keyLocatorFactory создает {@link KeyLocator} по списку серверов зеркала, по умолчанию
+     *                          {@link KetamaKeyLocator}
+     * @return
+     */
+    public ClientBuilder setKeyLocator(Function<List<InetSocketAddress>, KeyLocator> keyLocatorFactory) {
+        this.keyLocatorFactory = keyLocatorFactory;
+        return this;
+    }
+
+    /**
+     * Устанавливает транспорт операций чтения значений.
+     *
+     * @param protocol транспорт, по умолчанию {@link Protocol#UDP}
+     * @return
+     */
+    public ClientBuilder setReadProtocol(Protocol protocol) {
+        this.readProtocol = protocol;
+        return this;
+    }
+
+    /**
+     * Устанавливает транспорт операций изменения значений.
+     *
+     * @param protocol транспорт, по умолчанию {@link Protocol#UDP}
+     * @return
+     */
+    public ClientBuilder setWriteProtocol(Protocol protocol) {
+        this.writeProtocol = protocol;
+        return this;
+    }
+
+    /**
+     * Устанавливает количество постоянных соединений с каждым сервером при использовании {@link Protocol#TCP}.
+     *
+     * @param connectionsPerServer количество соединений
+     * @return
+     */
+    public ClientBuilder setConnectionsPerServer(int connectionsPerServer) {
+        assert connectionsPerServer > 0;
+
+        this.connectionsPerServer = connectionsPerServer;
+        return this;
+    }
+
+    /**
+     * Устанавливает количество UDP сокетов при использовании {@link Protocol#UDP}. Каждый сокет обслуживается своим
+     * event loop, поэтому количество сокетов имеет смысл ограничивать количеством event loop в
+     * {@link #eventLoopGroup(EventLoopGroup) группе}.
+     *
+     * @param datagramChannels количество сокетов
+     * @return
+     */
+    public ClientBuilder setDatagramChannels(int datagramChannels) {
+        assert datagramChannels > 0;
+
+        this.datagramChannels = datagramChannels;
+        return this;
+    }
+
+    /**
+     * Включает объединение одновременных чтений ключа: пока запрос {@link Client#get} ожидает ответа, чтения того же
+     * ключа не отправляют своих запросов и получают его ответ. Чтение, начатое после записи ключа, может получить
+     * значение, прочитанное до записи, если к этому времени запрос еще не завершен.
+     *
+     * @return
+     */
+    public ClientBuilder coalesceGets() {
+        this.coalesceGets = true;
+        return this;
+    }
+
+    /**
+     * Включает сжатие значений алгоритмом {@link Compressors#DEFLATE}.
+     *
+     * @param threshold размер значения в байтах, больше которого значение сжимается
+     * @return
+     * @see #compressValues(int, Compressor)
+     */
+    public ClientBuilder compressValues(int threshold) {
+        return compressValues(threshold, Compressors.DEFLATE);
+    }
+
+    /**
+     * Включает сжатие значений: значения больше {@code threshold} байт сжимаются при записи и помечаются флагом
+     * {@link Transcoders#COMPRESSED_FLAG}, при чтении сжатые значения распаковываются до передачи преобразователю.
+     * Сжатие позволяет записывать по UDP значения, которые в несжатом виде не умещаются в одну датаграмму. Значения,
+     * дописываемые {@link Client#append} и {@link Client#prepend}, не сжимаются, поэтому дописывать к сжатым
+     * значениям нельзя.
+     *
+     * @param threshold  размер значения в байтах, больше которого значение сжимается
+     * @param compressor алгоритм сжатия
+     * @return
+     */
+    public ClientBuilder compressValues(int threshold, Compressor compressor) {
+        assert threshold >= 0;
+
+        this.compressionThreshold = threshold;
+        this.compressor = compressor;
+        return this;
+    }
+
+    /**
+     * Включает локальный кеш значений перед memcached. Значения, прочитанные через {@link Client#get}, хранятся в
+     * памяти клиента не дольше {@code ttl}, изменение ключа через этот клиент удаляет его из кеша. Изменения,
+     * сделанные другими клиентами, становятся видны после истечения {@code ttl}.
+     *
+     * @param maxEntries максимальное количество значений
+     * @param maxBytes   максимальный суммарный размер значений в байтах
+     * @param ttl        время жизни значения в кеше в мс.
+     * @return
+     */
+    public ClientBuilder setNearCache(int maxEntries, long maxBytes, int ttl) {
+        assert maxEntries > 0;
+        assert maxBytes > 0;
+        assert ttl > 0;
+
+        this.nearCacheEntries = maxEntries;
+        this.nearCacheBytes = maxBytes;
+        this.nearCacheTtl = ttl;
+        return this;
+    }
+
+    /**
+     * Включает исключение недоступных серверов: если сервер не ответил подряд на {@code failureThreshold} запросов и
+     * не отвечает дольше времени ожидания ответа, его ключи распределяются по остальным серверам зеркала. Исключенному
+     * серверу каждые {@code probeInterval} отправляется NOOP, после ответа он снова получает свои ключи. Значения,
+     * записанные на другие серверы за время исключения, после возвращения сервера не видны.
+     *
+     * @param failureThreshold количество запросов подряд без ответа
+     * @param probeInterval    период проверки исключенного сервера в мс.
+     * @return
+     */
+    public ClientBuilder ejectFailedServers(int failureThreshold, int probeInterval) {
+        assert failureThreshold > 0;
+        assert probeInterval > 0;
+
+        this.failureThreshold = failureThreshold;
+        this.probeInterval = probeInterval;
+        return this;
+    }
+
+    /**
+     * Включает чтение с упреждающими запросами: запрос отправляется на зеркало с наименьшим временем ответа, а если
+     * ответ задерживается дольше обычного для этого зеркала, то и на следующее. Время ответа серверов оценивается
+     * по ответам на предыдущие запросы.
+     *
+     * @return
+     */
+    public ClientBuilder hedgedReads() {
+        this.readStrategy = ReadStrategy.HEDGED;
+        return this;
+    }
+
     public ClientBuilder retryOnFail(int number, int timeout) {
         assert number > 0;
         assert timeout > 0;
@@ -93,43 +491,174 @@ public class ClientBuilder {
         return this;
     }
 
-    private InetSocketAddress[][] asArrays(List<List<InetSocketAddress>> mirrors) {
-        InetSocketAddress[][] result = new InetSocketAddress[mirrors.size()][];
-        for (int i = 0; i < result.length; ++i) {
-            List<InetSocketAddress> mirror = mirrors.get(i);
-            result[i] = mirror.toArray(new InetSocketAddress[mirror.size()]);
+    private MirrorLocators locators(Topology topology, ServerHealth health) {
+        return new MirrorLocators(topology, servers ->
+                null == health ? keyLocatorFactory.apply(servers) : new HealthyKeyLocator(servers, keyLocatorFactory, health));
+    }
+
+    private Client build(Protocol protocol) {
+        ServerTimeouts timeouts = serverTimeouts();
+        int timeout = null == timeouts ? this.timeout : (int) TimeUnit.NANOSECONDS.toMillis(timeouts.maxTimeout());
+        Topology topology = null == this.topology ? new Topology(readWriteMirrors, writeOnlyMirrors) : this.topology;
+        ServerHealth health = serverHealth(timeout, topology);
+        MirrorLocators locators = locators(topology, health);
+        Supplier<KeyLocator[]> readWrite = locators.view(Role.READ_WRITE);
+        if (Protocol.TCP.equals(protocol)) {
+            return new TcpClient(timeout,
+                    timeoutResolution,
+                    maxDatagramSize,
+                    maxPendingRequests,
+                    metrics,
+                    coalesceGets,
+                    admission(),
+                    timeouts,
+                    health,
+                    compression(),
+                    bulkWindow,
+                    locators,
+                    connectionsPerServer,
+                    eventLoopGroup,
+                    topology,
+                    readStrategy(readWrite, timeouts),
+                    batchReadStrategy(readWrite),
+                    shardStrategy(readWrite),
+                    shardStrategy(locators.view(Role.WRITE_ONLY)),
+                    shardStrategy(locators.view(Role.ALL)),
+                    shardStrategy(locators.view(Role.CAS)),
+                    shardStrategy(locators.view(Role.REPLICAS)));
         }
-        return result;
+        return new UdpClient(timeout,
+                timeoutResolution,
+                maxDatagramSize,
+                maxPendingRequests,
+                metrics,
+                coalesceGets,
+                admission(),
+                timeouts,
+                health,
+                compression(),
+                bulkWindow,
+                locators,
+                maxReassemblyBytes,
+                datagramChannels,
+                eventLoopGroup,
+                readStrategy(readWrite, timeouts),
+                batchReadStrategy(readWrite),
+                shardStrategy(readWrite),
+                shardStrategy(locators.view(Role.WRITE_ONLY)),
+                shardStrategy(locators.view(Role.ALL)),
+                shardStrategy(locators.view(Role.CAS)),
+                shardStrategy(locators.view(Role.REPLICAS)));
+    }
+
+    private Compression compression() {
+        return null == compressor ? null : new Compression(compressionThreshold, compressor);
     }
 
-    private List<List<InetSocketAddress>> concat(List<List<InetSocketAddress>> first, List<List<InetSocketAddress>> second) {
-        List<List<InetSocketAddress>> result = new ArrayList<>(first.size() + second.size());
-        result.addAll(first);
-        result.addAll(second);
+    private Admission admission() {
+        if (null == overloadPolicy && 0 == maxPendingRequestsPerServer) {
+            return null;
+        }
+        return new Admission(null == overloadPolicy ? OverloadPolicy.FAIL_FAST : overloadPolicy,
+                maxPendingRequestsPerServer,
+                overloadBlockTimeout,
+                metrics);
+    }
+
+    /**
+     * Сервер исключается, если не отвечает дольше наибольшего времени ожидания ответа.
+     */
+    private ServerHealth serverHealth(int timeout, Topology topology) {
+        if (0 == failureThreshold) {
+            return null;
+        }
+        return new ServerHealth(failureThreshold,
+                TimeUnit.MILLISECONDS.toNanos(timeout),
+                TimeUnit.MILLISECONDS.toNanos(probeInterval),
+                metrics,
+                topology);
+    }
+
+    private ServerTimeouts serverTimeouts() {
+        // Упреждающим запросам нужно время ответа серверов, которое учитывают ServerTimeouts
+        if (0 == minTimeout && mirrorTimeouts.isEmpty() && !ReadStrategy.HEDGED.equals(readStrategy)) {
+            return null;
+        }
+        Map<InetSocketAddress, Long> timeouts = new HashMap<>();
+        mirrorTimeouts.forEach((server, timeout) -> timeouts.put(server, TimeUnit.MILLISECONDS.toNanos(timeout)));
+        return new ServerTimeouts(TimeUnit.MILLISECONDS.toNanos(timeout),
+                TimeUnit.MILLISECONDS.toNanos(minTimeout),
+                0 != minTimeout,
+                timeouts);
+    }
+
+    /**
+     * @return наибольшее из времен ожидания клиента и зеркал в мс.
+     */
+    private int maxTimeout() {
+        int result = timeout;
+        for (int mirrorTimeout : mirrorTimeouts.values()) {
+            result = Math.max(result, mirrorTimeout);
+        }
         return result;
     }
 
-    private int hash(String key) {
-        return key.hashCode();
+    /**
+     * Сервер, входящий в несколько зеркал, ожидает ответа наибольшее из их времен ожидания.
+     */
+    private void setMirrorTimeout(List<InetSocketAddress> servers, int timeout) {
+        assert timeout > 0;
+
+        for (InetSocketAddress server : servers) {
+            mirrorTimeouts.merge(server, timeout, Math::max);
+        }
+    }
+
+    private BatchStrategy batchReadStrategy(Supplier<KeyLocator[]> mirrors) {
+        if (ReadStrategy.RETRY_ON_FAIL.equals(this.readStrategy)) {
+            return retryOnFailBatchStrategy(mirrors);
+        }
+        // Пакетный запрос сразу отправляется на все зеркала, используются первые полученные значения
+        return shardBatchStrategy(mirrors);
     }
 
-    private ServerStrategy readStrategy() {
-        if (ReadStrategy.SHARD.equals(this.readStrategy)) {
-            return shardStrategy(readWriteMirrors);
+    private ServerStrategy readStrategy(Supplier<KeyLocator[]> mirrors, ServerTimeouts timeouts) {
+        switch (this.readStrategy) {
+            case RETRY_ON_FAIL:
+                return retryOnFailStrategy(mirrors, timeouts);
+            case HEDGED:
+                return hedgedStrategy(mirrors, timeouts);
+            default:
+                return shardStrategy(mirrors);
         }
-        return retryOnFailStrategy(readWriteMirrors);
     }
 
-    private ServerStrategy retryOnFailStrategy(List<List<InetSocketAddress>> mirrors) {
-        InetSocketAddress[][] servers = asArrays(mirrors);
-        int numberOfMirrors = servers.length;
-        return (promise, channel, key, buf) -> {
-            int hash = hash(key);
-            ReferenceCountUtil.retain(buf, retryOnFailNumber);
+    private ServerStrategy hedgedStrategy(Supplier<KeyLocator[]> mirrors, ServerTimeouts timeouts) {
+        long timeoutNanos = timeouts.maxTimeout();
+        return (promise, transport, key, buf) -> {
+            KeyLocator[] locators = mirrors.get();
+            if (0 == locators.length) {
+                noMirrors(promise, transport, buf);
+                return;
+            }
+            InetSocketAddress[] servers = new InetSocketAddress[locators.length];
+            for (int i = 0; i < servers.length; ++i) {
+                servers[i] = locators[i].locate(key);
+            }
+            new HedgedRead(promise, transport, buf, servers, timeouts, timeoutNanos).start();
+        };
+    }
 
-            // Send first main packet
-            InetSocketAddress[] mirror = servers[0];
-            channel.writeAndFlush(new DatagramPacket(buf, mirror[hash % mirror.length]));
+    private ServerStrategy retryOnFailStrategy(Supplier<KeyLocator[]> mirrors, ServerTimeouts timeouts) {
+        long retryDelay = TimeUnit.MILLISECONDS.toNanos(retryOnFailTimeout);
+        return (promise, transport, key, buf) -> {
+            KeyLocator[] servers = mirrors.get();
+            if (0 == servers.length) {
+                noMirrors(promise, transport, buf);
+                return;
+            }
+            ReferenceCountUtil.retain(buf, retryOnFailNumber);
+            int first = firstAliveMirror(servers, key);
 
             AtomicReference<ScheduledFuture<?>> retryTask = new AtomicReference<>();
             AtomicInteger retryNumber = new AtomicInteger(0);
@@ -148,17 +677,29 @@ public class ClientBuilder {
                         return;
                     }
 
-                    InetSocketAddress[] mirror0 = servers[numberOfRetry % numberOfMirrors];
-                    channel.writeAndFlush(new DatagramPacket(buf, mirror0[hash % mirror0.length]));
-
+                    // Повтор направляется по текущей топологии, зеркала могли измениться после первой отправки
+                    KeyLocator[] current = mirrors.get();
+                    if (0 == current.length) {
+                        // Ссылка этого повтора освобождается здесь, ссылки остальных - при завершении запроса
+                        noMirrors(promise, transport, buf);
+                        return;
+                    }
+                    KeyLocator mirror = current[(first + numberOfRetry) % current.length];
+                    InetSocketAddress server = mirror.locate(key);
                     if (left > 0) {
-                        retryTask.set(channel.eventLoop().schedule(this, retryOnFailTimeout, TimeUnit.MILLISECONDS));
+                        retryTask.set(transport.eventLoop().schedule(this, retryDelay(timeouts, server, retryDelay), TimeUnit.NANOSECONDS));
                     } else {
                         retryTask.set(null);
                     }
+                    transport.send(server, buf);
                 }
             };
-            retryTask.set(channel.eventLoop().schedule(callback, retryOnFailTimeout, TimeUnit.MILLISECONDS));
+
+            // Send first main packet. Повтор планируется до отправки, поэтому ожидание ответа, продленное отправкой
+            // на время ожидания сервера, не истекает раньше повтора
+            InetSocketAddress server = servers[first].locate(key);
+            retryTask.set(transport.eventLoop().schedule(callback, retryDelay(timeouts, server, retryDelay), TimeUnit.NANOSECONDS));
+            transport.send(server, buf);
             promise.addListener((Future<Object> future) -> {
                 int left = retryOnFailNumber - retryNumber.getAndSet(Integer.MAX_VALUE);
                 if (left > 0) {
@@ -172,23 +713,102 @@ public class ClientBuilder {
         };
     }
 
-    private ServerStrategy shardStrategy(List<List<InetSocketAddress>> listOfMirrors) {
-        InetSocketAddress[][] servers = asArrays(listOfMirrors);
-        int numberOfMirrors = servers.length;
-        if (0 == numberOfMirrors) {
-            return null;
+    /**
+     * Чтение начинается с первого зеркала, в котором есть доступный сервер для ключа, чтобы не ожидать повтора
+     * из-за исключенного зеркала. Если доступных нет, чтение начинается с первого зеркала.
+     */
+    private static int firstAliveMirror(KeyLocator[] mirrors, String key) {
+        for (int i = 0; i < mirrors.length; ++i) {
+            if (!(mirrors[i] instanceof HealthyKeyLocator) || ((HealthyKeyLocator) mirrors[i]).isAlive(key)) {
+                return i;
+            }
         }
+        return 0;
+    }
+
+    private static long retryDelay(ServerTimeouts timeouts, InetSocketAddress server, long retryDelay) {
+        return null == timeouts ? retryDelay : timeouts.retryDelay(server, retryDelay);
+    }
+
+    private BatchStrategy retryOnFailBatchStrategy(Supplier<KeyLocator[]> mirrors) {
+        return (request, transport) -> {
+            KeyLocator[] servers = mirrors.get();
+            if (0 == servers.length) {
+                return;
+            }
 
-        int retainAmount = numberOfMirrors - 1;
-        return (promise, channel, key, buf) -> {
-            int hash = hash(key);
+            // Send first main packets
+            sendToMirror(request, servers[0]);
+
+            Runnable callback = new Runnable() {
+                private int numberOfRetry;
+
+                public void run() {
+                    ++numberOfRetry;
+                    if (!request.isDone()) {
+                        // Повторно запрашиваются только ключи, ответы по которым еще не получены
+                        KeyLocator[] current = mirrors.get();
+                        if (current.length > 0) {
+                            sendToMirror(request, current[numberOfRetry % current.length]);
+                        }
+                        if (numberOfRetry < retryOnFailNumber) {
+                            transport.eventLoop().schedule(this, retryOnFailTimeout, TimeUnit.MILLISECONDS);
+                            return;
+                        }
+                    }
+                    request.release();
+                }
+            };
+            request.retain();
+            transport.eventLoop().schedule(callback, retryOnFailTimeout, TimeUnit.MILLISECONDS);
+        };
+    }
+
+    private void sendToMirror(MultiGetRequest<?> request, KeyLocator mirror) {
+        Map<InetSocketAddress, List<String>> keysByServer = new HashMap<>();
+        for (String key : request.unresolvedKeys()) {
+            InetSocketAddress server = mirror.locate(key);
+            keysByServer.computeIfAbsent(server, s -> new ArrayList<>()).add(key);
+        }
+        keysByServer.forEach(request::send);
+    }
+
+    private BatchStrategy shardBatchStrategy(Supplier<KeyLocator[]> mirrors) {
+        return (request, transport) -> {
+            for (KeyLocator mirror : mirrors.get()) {
+                sendToMirror(request, mirror);
+            }
+        };
+    }
+
+    private ServerStrategy shardStrategy(Supplier<KeyLocator[]> mirrors) {
+        return (promise, transport, key, buf) -> {
+            KeyLocator[] servers = mirrors.get();
+            int numberOfMirrors = servers.length;
+            if (0 == numberOfMirrors) {
+                noMirrors(promise, transport, buf);
+                return;
+            }
+
+            int retainAmount = numberOfMirrors - 1;
             if (retainAmount > 0) {
                 ReferenceCountUtil.retain(buf, retainAmount);
             }
             for (int i = 0; i < numberOfMirrors; ++i) {
-                InetSocketAddress[] mirror = servers[i];
-                channel.writeAndFlush(new DatagramPacket(buf, mirror[hash % mirror.length]));
+                transport.send(servers[i].locate(key), buf);
             }
         };
     }
+
+    /**
+     * Запрос некуда отправить: в топологии нет нужных зеркал.
+     */
+    private static void noMirrors(Promise<?> promise, Transport transport, ByteBuf buf) {
+        if (null != promise) {
+            // Место в таблице запросов освобождается сразу, а не проверкой таймаутов
+            transport.cancel(buf);
+            promise.tryFailure(new IllegalStateException("No mirrors"));
+        }
+        buf.release();
+    }
 }
@@ -0,0 +1,117 @@
+package com.xtesseract.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Получатель событий клиента для сбора метрик. Методы вызываются из потоков, отправляющих запросы, и из event loop,
+ * поэтому реализация должна быть потокобезопасной и не должна блокировать поток.
+ *
+ * @see DefaultClientMetrics
+ */
+public interface ClientMetrics {
+
+    /**
+     * Не собирает метрики
+     */
+    ClientMetrics NONE = new ClientMetrics() {
+    };
+
+    /**
+     * Вызывается при создании клиента.
+     *
+     * @param pendingRequests количество запросов клиента, ожидающих ответа
+     */
+    default void pendingRequestsGauge(IntSupplier pendingRequests) {
+    }
+
+    /**
+     * Вызывается при создании клиента.
+     *
+     * @param pendingRequests количество запросов клиента, ожидающих ответа сервера. Просматривает все ожидающие
+     *                        запросы, поэтому не должно вызываться при отправке запросов
+     */
+    default void serverPendingRequestsGauge(ToIntFunction<InetSocketAddress> pendingRequests) {
+    }
+
+    /**
+     * @param server сервер
+     * @param opCode код команды, для пакетного запроса код первой команды
+     * @param bytes  размер пакета
+     */
+    default void requestSent(InetSocketAddress server, byte opCode, int bytes) {
+    }
+
+    /**
+     * Получен ответ на запрос, ожидающий ответа.
+     *
+     * @param server  сервер
+     * @param opCode  код команды
+     * @param status  статус ответа, 0 при успехе
+     * @param latency время от отправки запроса в нс.
+     * @param bytes   размер ответа
+     */
+    default void responseReceived(InetSocketAddress server, byte opCode, int status, long latency, int bytes) {
+    }
+
+    /**
+     * Получен ответ на запрос, ожидание которого уже завершено: по таймауту, ответом другого зеркала или ответ на
+     * ошибку команды, не ожидающей ответа.
+     */
+    default void lateResponseReceived(InetSocketAddress server, byte opCode, int status, int bytes) {
+    }
+
+    /**
+     * Истек таймаут ожидания ответа на запрос, который не был отправлен ни одному серверу.
+     */
+    default void requestTimedOut() {
+    }
+
+    /**
+     * Истек таймаут ожидания ответа. Для каждого сервера, которому был отправлен запрос, дополнительно вызывается
+     * {@link #serverTimedOut}.
+     *
+     * @param opCode код команды, для пакетного запроса код первой команды
+     */
+    default void requestTimedOut(byte opCode) {
+        requestTimedOut();
+    }
+
+    /**
+     * Сервер не ответил на запрос до истечения таймаута.
+     */
+    default void serverTimedOut(InetSocketAddress server) {
+    }
+
+    /**
+     * Запрос не отправлен из-за перегрузки: превышено количество запросов, ожидающих ответа, или переполнен буфер
+     * канала.
+     */
+    default void requestRejected() {
+    }
+
+    /**
+     * Значение прочитано из локального кеша, см. {@link ClientBuilder#setNearCache}.
+     */
+    default void nearCacheHit() {
+    }
+
+    /**
+     * Значения нет в локальном кеше, запрос отправлен в memcached.
+     */
+    default void nearCacheMiss() {
+    }
+
+    /**
+     * Сервер исключен из маршрутизации, см. {@link ClientBuilder#ejectFailedServers}.
+     */
+    default void serverEjected(InetSocketAddress server) {
+    }
+
+    /**
+     * Исключенный сервер ответил на проверку и возвращен в маршрутизацию.
+     */
+    default void serverReadmitted(InetSocketAddress server) {
+    }
+}
@@ -0,0 +1,82 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Запрос GET, ответ на который получают все одновременные чтения ключа. Пока запрос ожидает ответа, он находится в
+ * таблице запросов клиента, и чтения того же ключа присоединяются к нему вместо отправки своего запроса. Каждое
+ * присоединенное обещание декодирует значение своим {@link Transcoder преобразователем}.
+ */
+class CoalescedGet extends ValuePromise<Void> implements GenericFutureListener<Future<Void>> {
+
+    private final ConcurrentMap<String, CoalescedGet> inflight;
+    private final String key;
+
+    // Защищены this
+    private List<ValuePromise<?>> waiters = new ArrayList<>(2);
+
+    /**
+     * @param inflight таблица ожидающих ответа запросов, из которой запрос удаляется при завершении
+     */
+    CoalescedGet(EventExecutor executor, ConcurrentMap<String, CoalescedGet> inflight, String key) {
+        // Значение декодируют присоединенные обещания
+        super(executor, null);
+        this.inflight = inflight;
+        this.key = key;
+        addListener(this);
+    }
+
+    /**
+     * @return {@code false}, если запрос уже завершен и нужно отправить новый
+     */
+    synchronized boolean join(ValuePromise<?> promise) {
+        if (null == waiters) {
+            return false;
+        }
+        waiters.add(promise);
+        return true;
+    }
+
+    @Override
+    void complete(int flags, long cas, ByteBuf body) {
+        for (ValuePromise<?> waiter : detach()) {
+            waiter.complete(flags, cas, body.duplicate());
+        }
+        trySuccess(null);
+    }
+
+    /**
+     * Передает ошибку или таймаут присоединенным обещаниям.
+     */
+    @Override
+    public void operationComplete(Future<Void> future) {
+        Throwable cause = future.cause();
+        if (null == cause) {
+            return;
+        }
+        for (ValuePromise<?> waiter : detach()) {
+            waiter.tryFailure(cause);
+        }
+    }
+
+    /**
+     * Удаляет запрос из таблицы, после этого к нему нельзя присоединиться.
+     */
+    private List<ValuePromise<?>> detach() {
+        inflight.remove(key, this);
+        List<ValuePromise<?>> result;
+        synchronized (this) {
+            result = waiters;
+            waiters = null;
+        }
+        return null == result ? Collections.emptyList() : result;
+    }
+}
@@ -0,0 +1,183 @@
+package com.xtesseract.memcached;
+
+import io.netty.util.concurrent.Promise;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Клиент, выполняющий чтение и запись через разных клиентов, например, чтение по UDP, а запись по TCP
+ */
+class CompositeClient implements Client {
+
+    private final Client readClient;
+    private final Client writeClient;
+
+    CompositeClient(Client readClient, Client writeClient) {
+        this.readClient = readClient;
+        this.writeClient = writeClient;
+    }
+
+    @Override
+    public void addQ(String key, int exp, String value) {
+        writeClient.addQ(key, exp, value);
+    }
+
+    @Override
+    public <T> void addQ(String key, int exp, T value, Transcoder<T> transcoder) {
+        writeClient.addQ(key, exp, value, transcoder);
+    }
+
+    @Override
+    public <T> Promise<Void> append(String key, T value, Transcoder<T> transcoder) {
+        return writeClient.append(key, value, transcoder);
+    }
+
+    @Override
+    public <T> void appendQ(String key, T value, Transcoder<T> transcoder) {
+        writeClient.appendQ(key, value, transcoder);
+    }
+
+    @Override
+    public <T> Promise<Void> cas(String key, int exp, T value, long cas, Transcoder<T> transcoder) {
+        return writeClient.cas(key, exp, value, cas, transcoder);
+    }
+
+    @Override
+    public <T> Promise<T> casUpdate(String key, int exp, Function<T, T> update, Transcoder<T> transcoder) {
+        return writeClient.casUpdate(key, exp, update, transcoder);
+    }
+
+    @Override
+    public Promise<Long> dec(String key, int exp) {
+        return writeClient.dec(key, exp);
+    }
+
+    @Override
+    public Promise<Long> dec(String key, int exp, long incValue, long initialValue) {
+        return writeClient.dec(key, exp, incValue, initialValue);
+    }
+
+    @Override
+    public void decQ(String key, int exp, long incValue, long initialValue) {
+        writeClient.decQ(key, exp, incValue, initialValue);
+    }
+
+    @Override
+    public Promise<Void> delete(String key) {
+        return writeClient.delete(key);
+    }
+
+    @Override
+    public void deleteQ(String key) {
+        writeClient.deleteQ(key);
+    }
+
+    @Override
+    public <T> Promise<T> gat(String key, int exp, Transcoder<T> transcoder) {
+        return writeClient.gat(key, exp, transcoder);
+    }
+
+    @Override
+    public <T> Promise<T> gatQ(String key, int exp, Transcoder<T> transcoder) {
+        return writeClient.gatQ(key, exp, transcoder);
+    }
+
+    @Override
+    public Promise<String> get(String key) {
+        return readClient.get(key);
+    }
+
+    @Override
+    public <T> Promise<T> get(String key, Transcoder<T> transcoder) {
+        return readClient.get(key, transcoder);
+    }
+
+    @Override
+    public Promise<Map<String, String>> getMulti(Collection<String> keys) {
+        return readClient.getMulti(keys);
+    }
+
+    @Override
+    public <T> Promise<Void> getAll(Iterator<String> keys, Transcoder<T> transcoder, BiConsumer<String, T> consumer) {
+        return readClient.getAll(keys, transcoder, consumer);
+    }
+
+    @Override
+    public <T> Promise<Map<String, T>> getMulti(Collection<String> keys, Transcoder<T> transcoder) {
+        return readClient.getMulti(keys, transcoder);
+    }
+
+    @Override
+    public <T> Promise<CasValue<T>> gets(String key, Transcoder<T> transcoder) {
+        return readClient.gets(key, transcoder);
+    }
+
+    @Override
+    public Promise<Long> inc(String key, int exp) {
+        return writeClient.inc(key, exp);
+    }
+
+    @Override
+    public Promise<Long> inc(String key, int exp, long incValue, long initialValue) {
+        return writeClient.inc(key, exp, incValue, initialValue);
+    }
+
+    @Override
+    public void incQ(String key, int exp, long incValue, long initialValue) {
+        writeClient.incQ(key, exp, incValue, initialValue);
+    }
+
+    @Override
+    public <T> Promise<Void> prepend(String key, T value, Transcoder<T> transcoder) {
+        return writeClient.prepend(key, value, transcoder);
+    }
+
+    @Override
+    public <T> void prependQ(String key, T value, Transcoder<T> transcoder) {
+        writeClient.prependQ(key, value, transcoder);
+    }
+
+    @Override
+    public void replaceQ(String key, int exp, String value) {
+        writeClient.replaceQ(key, exp, value);
+    }
+
+    @Override
+    public <T> void replaceQ(String key, int exp, T value, Transcoder<T> transcoder) {
+        writeClient.replaceQ(key, exp, value, transcoder);
+    }
+
+    @Override
+    public Promise<Void> set(String key, int exp, String value) {
+        return writeClient.set(key, exp, value);
+    }
+
+    @Override
+    public <T> Promise<Void> set(String key, int exp, T value, Transcoder<T> transcoder) {
+        return writeClient.set(key, exp, value, transcoder);
+    }
+
+    @Override
+    public <T> Promise<Long> setAll(Iterator<? extends Map.Entry<String, T>> entries, int exp, Transcoder<T> transcoder) {
+        return writeClient.setAll(entries, exp, transcoder);
+    }
+
+    @Override
+    public void setQ(String key, int exp, String value) {
+        writeClient.setQ(key, exp, value);
+    }
+
+    @Override
+    public <T> void setQ(String key, int exp, T value, Transcoder<T> transcoder) {
+        writeClient.setQ(key, exp, value, transcoder);
+    }
+
+    @Override
+    public Promise<Void> touch(String key, int exp) {
+        return writeClient.touch(key, exp);
+    }
+}
@@ -0,0 +1,100 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Сжатие значений больше порога. Сжатое значение помечается флагом {@link Transcoders#COMPRESSED_FLAG} и
+ * предваряется размером несжатого значения, поэтому при чтении распаковывается независимо от порога. Значение,
+ * которое не уменьшилось при сжатии, записывается как есть.
+ */
+class Compression {
+
+    /**
+     * Наибольший размер несжатого значения: ограничение размера значения memcached по умолчанию
+     */
+    static final int MAX_VALUE_LENGTH = 1024 * 1024;
+
+    /**
+     * Преобразователь, сжимающий значения другого преобразователя
+     */
+    private final class CompressingTranscoder<T> implements Transcoder<T> {
+        private final Transcoder<T> transcoder;
+
+        CompressingTranscoder(Transcoder<T> transcoder) {
+            this.transcoder = transcoder;
+        }
+
+        @Override
+        public int encode(T value, ByteBuf out) {
+            // Значение записывается сразу в запрос, копируется только значение, которое нужно сжать
+            int valueIndex = out.writerIndex();
+            int flags = transcoder.encode(value, out);
+            int length = out.writerIndex() - valueIndex;
+            if (length <= threshold) {
+                return flags;
+            }
+
+            ByteBuf raw = out.alloc().heapBuffer(length);
+            try {
+                raw.writeBytes(out, valueIndex, length);
+                out.writerIndex(valueIndex);
+                // Место под сжатое значение выделяется один раз, а не по мере записи
+                out.ensureWritable(4 + compressor.maxCompressedLength(length));
+                out.writeInt(length);
+                compressor.compress(raw, out);
+                if (out.writerIndex() - valueIndex < length) {
+                    return flags | Transcoders.COMPRESSED_FLAG;
+                }
+                out.writerIndex(valueIndex);
+                out.writeBytes(raw, 0, length);
+                return flags;
+            } finally {
+                raw.release();
+            }
+        }
+
+        @Override
+        public T decode(int flags, ByteBuf in) {
+            if (0 == (flags & Transcoders.COMPRESSED_FLAG)) {
+                return transcoder.decode(flags, in);
+            }
+
+            // Флаг сжатия используют и другие клиенты со своими форматами, их значения не начинаются с размера
+            int length = in.readableBytes() >= 4 ? in.readInt() : -1;
+            if (length < 0 || length > MAX_VALUE_LENGTH) {
+                throw new IllegalArgumentException("Invalid compressed value length: " + length);
+            }
+            ByteBuf raw = in.alloc().heapBuffer(length);
+            try {
+                compressor.decompress(in, raw, length);
+                return transcoder.decode(flags & ~Transcoders.COMPRESSED_FLAG, raw);
+            } finally {
+                raw.release();
+            }
+        }
+
+        @Override
+        public int sizeHint(T value) {
+            return transcoder.sizeHint(value);
+        }
+    }
+
+    private final int threshold;
+    private final Compressor compressor;
+
+    /**
+     * @param threshold размер значения в байтах, больше которого значение сжимается
+     */
+    Compression(int threshold, Compressor compressor) {
+        this.threshold = threshold;
+        this.compressor = compressor;
+    }
+
+    /**
+     * @return преобразователь, сжимающий значения {@code transcoder}. Преобразователи передаются в вызовы клиента и
+     * могут создаваться на каждый вызов, поэтому обертка не кешируется
+     */
+    <T> Transcoder<T> wrap(Transcoder<T> transcoder) {
+        return new CompressingTranscoder<>(transcoder);
+    }
+}
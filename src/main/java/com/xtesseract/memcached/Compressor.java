@@ -0,0 +1,38 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Алгоритм сжатия значений, см. {@link ClientBuilder#compressValues(int, Compressor)}.
+ *
+ * @see Compressors
+ */
+public interface Compressor {
+
+    /**
+     * Сжимает читаемые байты буфера.
+     *
+     * @param in  несжатое значение
+     * @param out буфер, в который дописывается сжатое значение
+     */
+    void compress(ByteBuf in, ByteBuf out);
+
+    /**
+     * Распаковывает читаемые байты буфера.
+     *
+     * @param in     сжатое значение
+     * @param out    буфер, в который дописывается несжатое значение
+     * @param length размер несжатого значения в байтах
+     */
+    void decompress(ByteBuf in, ByteBuf out, int length);
+
+    /**
+     * Оценка размера сжатого значения, под которую заранее выделяется место в запросе.
+     *
+     * @param length размер несжатого значения в байтах
+     * @return наибольший размер сжатого значения в байтах
+     */
+    default int maxCompressedLength(int length) {
+        return length;
+    }
+}
@@ -0,0 +1,130 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Стандартные {@link Compressor алгоритмы сжатия}
+ */
+public final class Compressors {
+
+    /**
+     * Deflate (zlib) из JDK. Экземпляры {@link Deflater} и {@link Inflater} дорого создавать и они занимают память
+     * вне кучи, поэтому берутся из небольших общих пулов и сбрасываются при возврате. Экземпляры сверх размера пула
+     * освобождаются сразу. Содержимое прямых буферов копируется, так как JDK 8 сжимает только массивы.
+     */
+    public static final Compressor DEFLATE = new Compressor() {
+        private final Pool<Deflater> deflaters = new Pool<>(Deflater::new, Deflater::reset, Deflater::end);
+        private final Pool<Inflater> inflaters = new Pool<>(Inflater::new, Inflater::reset, Inflater::end);
+
+        @Override
+        public void compress(ByteBuf in, ByteBuf out) {
+            Deflater deflater = deflaters.acquire();
+            try {
+                if (in.hasArray()) {
+                    deflater.setInput(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes());
+                } else {
+                    deflater.setInput(copy(in));
+                }
+                deflater.finish();
+
+                byte[] chunk = out.hasArray() ? null : new byte[Math.min(in.readableBytes(), 8 * 1024)];
+                while (!deflater.finished()) {
+                    if (null == chunk) {
+                        out.ensureWritable(Math.max(64, in.readableBytes() >> 2));
+                        int written = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+                        out.writerIndex(out.writerIndex() + written);
+                    } else {
+                        out.writeBytes(chunk, 0, deflater.deflate(chunk));
+                    }
+                }
+            } finally {
+                deflaters.release(deflater);
+            }
+        }
+
+        @Override
+        public void decompress(ByteBuf in, ByteBuf out, int length) {
+            Inflater inflater = inflaters.acquire();
+            try {
+                if (in.hasArray()) {
+                    inflater.setInput(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes());
+                } else {
+                    inflater.setInput(copy(in));
+                }
+
+                int written;
+                if (out.hasArray()) {
+                    out.ensureWritable(length);
+                    written = inflater.inflate(out.array(), out.arrayOffset() + out.writerIndex(), length);
+                    out.writerIndex(out.writerIndex() + written);
+                } else {
+                    byte[] result = new byte[length];
+                    written = inflater.inflate(result);
+                    out.writeBytes(result, 0, written);
+                }
+                if (written != length || !inflater.finished()) {
+                    throw new IllegalArgumentException("Corrupted compressed value");
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Corrupted compressed value", e);
+            } finally {
+                inflaters.release(inflater);
+            }
+        }
+
+        /**
+         * Граница размера из zlib (compressBound)
+         */
+        @Override
+        public int maxCompressedLength(int length) {
+            return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+        }
+    };
+
+    /**
+     * Ограниченный пул экземпляров, которые дорого создавать
+     */
+    private static final class Pool<T> {
+        private static final int SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+        private final Queue<T> free = new ArrayBlockingQueue<>(SIZE);
+        private final Supplier<T> factory;
+        private final Consumer<T> reset;
+        private final Consumer<T> destroy;
+
+        Pool(Supplier<T> factory, Consumer<T> reset, Consumer<T> destroy) {
+            this.factory = factory;
+            this.reset = reset;
+            this.destroy = destroy;
+        }
+
+        T acquire() {
+            T instance = free.poll();
+            return null == instance ? factory.get() : instance;
+        }
+
+        void release(T instance) {
+            reset.accept(instance);
+            if (!free.offer(instance)) {
+                destroy.accept(instance);
+            }
+        }
+    }
+
+    private Compressors() {
+    }
+
+    private static byte[] copy(ByteBuf buf) {
+        byte[] result = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), result);
+        return result;
+    }
+}
@@ -0,0 +1,308 @@
+package com.xtesseract.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Реализация {@link ClientMetrics}, накапливающая счетчики в памяти. Счетчики распределены по ячейкам
+ * ({@link LongAdder}), поэтому запись из разных потоков не конкурирует, а после появления сервера или кода
+ * команды не создает объектов.
+ */
+public class DefaultClientMetrics implements ClientMetrics {
+
+    /**
+     * Метрики одного сервера
+     */
+    public static class ServerMetrics {
+        private final IntSupplier pendingRequests;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder responses = new LongAdder();
+        private final LongAdder lateResponses = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder ejections = new LongAdder();
+        private volatile boolean ejected;
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        ServerMetrics(IntSupplier pendingRequests) {
+            this.pendingRequests = pendingRequests;
+        }
+
+        /**
+         * @return количество отправленных пакетов
+         */
+        public long requests() {
+            return requests.sum();
+        }
+
+        /**
+         * @return количество ответов на запросы, ожидающие ответа
+         */
+        public long responses() {
+            return responses.sum();
+        }
+
+        /**
+         * @return количество ответов на запросы, ожидание которых уже завершено
+         */
+        public long lateResponses() {
+            return lateResponses.sum();
+        }
+
+        /**
+         * @return количество запросов, на которые сервер не ответил до истечения таймаута
+         */
+        public long timeouts() {
+            return timeouts.sum();
+        }
+
+        /**
+         * @return количество запросов, ожидающих ответа сервера. Просматривает все ожидающие запросы клиентов
+         */
+        public int pendingRequests() {
+            return pendingRequests.getAsInt();
+        }
+
+        public long bytesOut() {
+            return bytesOut.sum();
+        }
+
+        public long bytesIn() {
+            return bytesIn.sum();
+        }
+
+        /**
+         * @return количество исключений сервера из маршрутизации
+         */
+        public long ejections() {
+            return ejections.sum();
+        }
+
+        /**
+         * @return {@code true}, если сервер сейчас исключен из маршрутизации
+         */
+        public boolean isEjected() {
+            return ejected;
+        }
+
+        /**
+         * @return время ответа сервера
+         */
+        public LatencyHistogram latency() {
+            return latency;
+        }
+    }
+
+    private static final int OP_CODES = 256;
+    private static final int STATUSES = 256;
+
+    private final ConcurrentHashMap<InetSocketAddress, ServerMetrics> servers = new ConcurrentHashMap<>();
+
+    private final LongAdder[] requests = adders(OP_CODES);
+    private final LongAdder[] responses = adders(OP_CODES);
+    private final LongAdder[] errors = adders(STATUSES);
+    private final LongAdder[] opTimeouts = adders(OP_CODES);
+    // Гистограммы создаются для используемых кодов команд
+    private final AtomicReferenceArray<LatencyHistogram> latencies = new AtomicReferenceArray<>(OP_CODES);
+
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder nearCacheHits = new LongAdder();
+    private final LongAdder nearCacheMisses = new LongAdder();
+
+    private final List<IntSupplier> pendingRequests = new CopyOnWriteArrayList<>();
+    private final List<ToIntFunction<InetSocketAddress>> serverPendingRequests = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void pendingRequestsGauge(IntSupplier pendingRequests) {
+        this.pendingRequests.add(pendingRequests);
+    }
+
+    @Override
+    public void serverPendingRequestsGauge(ToIntFunction<InetSocketAddress> pendingRequests) {
+        this.serverPendingRequests.add(pendingRequests);
+    }
+
+    @Override
+    public void requestSent(InetSocketAddress server, byte opCode, int bytes) {
+        ServerMetrics metrics = server(server);
+        metrics.requests.increment();
+        metrics.bytesOut.add(bytes);
+        requests[opCode & 0xff].increment();
+    }
+
+    @Override
+    public void responseReceived(InetSocketAddress server, byte opCode, int status, long latency, int bytes) {
+        ServerMetrics metrics = server(server);
+        metrics.responses.increment();
+        metrics.bytesIn.add(bytes);
+        metrics.latency.record(latency);
+        responses[opCode & 0xff].increment();
+        latency(opCode).record(latency);
+        if (0 != status) {
+            errors[Math.min(status, STATUSES - 1)].increment();
+        }
+    }
+
+    @Override
+    public void lateResponseReceived(InetSocketAddress server, byte opCode, int status, int bytes) {
+        ServerMetrics metrics = server(server);
+        metrics.lateResponses.increment();
+        metrics.bytesIn.add(bytes);
+    }
+
+    @Override
+    public void requestTimedOut() {
+        timeouts.increment();
+    }
+
+    @Override
+    public void requestTimedOut(byte opCode) {
+        timeouts.increment();
+        opTimeouts[opCode & 0xff].increment();
+    }
+
+    @Override
+    public void serverTimedOut(InetSocketAddress server) {
+        server(server).timeouts.increment();
+    }
+
+    @Override
+    public void requestRejected() {
+        rejected.increment();
+    }
+
+    @Override
+    public void serverEjected(InetSocketAddress server) {
+        ServerMetrics metrics = server(server);
+        metrics.ejections.increment();
+        metrics.ejected = true;
+    }
+
+    @Override
+    public void serverReadmitted(InetSocketAddress server) {
+        server(server).ejected = false;
+    }
+
+    @Override
+    public void nearCacheHit() {
+        nearCacheHits.increment();
+    }
+
+    @Override
+    public void nearCacheMiss() {
+        nearCacheMisses.increment();
+    }
+
+    /**
+     * @return серверы, с которыми работал клиент
+     */
+    public Set<InetSocketAddress> servers() {
+        return Collections.unmodifiableSet(servers.keySet());
+    }
+
+    /**
+     * @return метрики сервера
+     */
+    public ServerMetrics server(InetSocketAddress server) {
+        ServerMetrics metrics = servers.get(server);
+        if (null == metrics) {
+            metrics = servers.computeIfAbsent(server, s -> new ServerMetrics(() -> pendingRequests(s)));
+        }
+        return metrics;
+    }
+
+    /**
+     * @return количество отправленных пакетов с командой {@code opCode}
+     */
+    public long requests(byte opCode) {
+        return requests[opCode & 0xff].sum();
+    }
+
+    /**
+     * @return количество ответов на команду {@code opCode}, ожидавших ответа
+     */
+    public long responses(byte opCode) {
+        return responses[opCode & 0xff].sum();
+    }
+
+    /**
+     * @return время ответа на команду {@code opCode}
+     */
+    public LatencyHistogram latency(byte opCode) {
+        int index = opCode & 0xff;
+        LatencyHistogram histogram = latencies.get(index);
+        if (null == histogram) {
+            latencies.compareAndSet(index, null, new LatencyHistogram());
+            histogram = latencies.get(index);
+        }
+        return histogram;
+    }
+
+    /**
+     * @param status статус ответа, см. {@link OperationError#getStatus()}
+     * @return количество ответов с ошибкой {@code status}
+     */
+    public long errors(int status) {
+        return errors[Math.min(status, STATUSES - 1)].sum();
+    }
+
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return количество истекших запросов с командой {@code opCode}
+     */
+    public long timeouts(byte opCode) {
+        return opTimeouts[opCode & 0xff].sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public long nearCacheHits() {
+        return nearCacheHits.sum();
+    }
+
+    public long nearCacheMisses() {
+        return nearCacheMisses.sum();
+    }
+
+    /**
+     * @return количество запросов, ожидающих ответа
+     */
+    public int pendingRequests() {
+        int result = 0;
+        for (IntSupplier gauge : pendingRequests) {
+            result += gauge.getAsInt();
+        }
+        return result;
+    }
+
+    private int pendingRequests(InetSocketAddress server) {
+        int result = 0;
+        for (ToIntFunction<InetSocketAddress> gauge : serverPendingRequests) {
+            result += gauge.applyAsInt(server);
+        }
+        return result;
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] result = new LongAdder[size];
+        for (int i = 0; i < size; ++i) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+}
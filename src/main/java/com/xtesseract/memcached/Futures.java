@@ -0,0 +1,59 @@
+package com.xtesseract.memcached;
+
+import io.netty.util.concurrent.Future;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Преобразование обещаний клиента в {@link CompletableFuture}. Обещания клиента завершаются в его event loop, поэтому
+ * тяжелые обработчики, выполняемые в нем, задерживают разбор всех остальных ответов.
+ */
+public final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Обработчики, не являющиеся async, выполняются в event loop клиента либо, если обещание уже завершено, в
+     * вызывающем потоке. Подходит для быстрых обработчиков, которым не нужна смена потока.
+     *
+     * @param future обещание клиента
+     * @return результат, завершаемый вместе с обещанием
+     */
+    public static <V> CompletableFuture<V> toCompletableFuture(Future<V> future) {
+        CompletableFuture<V> result = new CompletableFuture<>();
+        if (future.isDone()) {
+            complete(future, result);
+        } else {
+            future.addListener(f -> complete(future, result));
+        }
+        return result;
+    }
+
+    /**
+     * Результат завершается в {@code executor}, поэтому обработчики, не являющиеся async, не выполняются в event
+     * loop клиента. Если обещание уже завершено, результат завершается сразу, без передачи в {@code executor}.
+     *
+     * @param future   обещание клиента
+     * @param executor исполнитель, в котором завершается результат
+     * @return результат, завершаемый вместе с обещанием
+     */
+    public static <V> CompletableFuture<V> toCompletableFuture(Future<V> future, Executor executor) {
+        CompletableFuture<V> result = new CompletableFuture<>();
+        if (future.isDone()) {
+            complete(future, result);
+        } else {
+            future.addListener(f -> executor.execute(() -> complete(future, result)));
+        }
+        return result;
+    }
+
+    private static <V> void complete(Future<V> future, CompletableFuture<V> result) {
+        if (future.isSuccess()) {
+            result.complete(future.getNow());
+        } else {
+            result.completeExceptionally(future.cause());
+        }
+    }
+}
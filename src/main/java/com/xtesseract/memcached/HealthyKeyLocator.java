@@ -0,0 +1,82 @@
+package com.xtesseract.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Размещение ключей зеркала с учетом {@link ServerHealth доступности серверов}. Ключи доступных серверов остаются на
+ * своих местах, ключи исключенного сервера распределяются по доступным. Если доступных серверов в зеркале нет,
+ * ключи остаются на своих серверах.
+ * <p/>
+ * После возвращения сервера его ключи читаются с него, поэтому значения, записанные на другие серверы во время его
+ * исключения, не видны до истечения их времени жизни.
+ */
+class HealthyKeyLocator implements KeyLocator {
+
+    /**
+     * Размещение по доступным серверам для состояния серверов с номером {@code version}
+     */
+    private static final class Live {
+        private final int version;
+        private final KeyLocator locator;
+
+        Live(int version, KeyLocator locator) {
+            this.version = version;
+            this.locator = locator;
+        }
+    }
+
+    private final List<InetSocketAddress> servers;
+    private final KeyLocator all;
+    private final Function<List<InetSocketAddress>, KeyLocator> factory;
+    private final ServerHealth health;
+
+    private volatile Live live;
+
+    HealthyKeyLocator(List<InetSocketAddress> servers, Function<List<InetSocketAddress>, KeyLocator> factory, ServerHealth health) {
+        this.servers = servers;
+        this.all = factory.apply(servers);
+        this.factory = factory;
+        this.health = health;
+        this.live = new Live(health.version(), all);
+    }
+
+    @Override
+    public InetSocketAddress locate(String key) {
+        InetSocketAddress server = all.locate(key);
+        if (health.isAlive(server)) {
+            return server;
+        }
+        return live().locate(key);
+    }
+
+    /**
+     * @return {@code true}, если в зеркале есть доступный сервер для ключа
+     */
+    boolean isAlive(String key) {
+        return health.isAlive(locate(key));
+    }
+
+    /**
+     * Размещение по доступным серверам пересчитывается один раз после изменения состояния серверов.
+     */
+    private KeyLocator live() {
+        Live current = live;
+        int version = health.version();
+        if (current.version == version) {
+            return current.locator;
+        }
+
+        List<InetSocketAddress> alive = new ArrayList<>(servers.size());
+        for (InetSocketAddress server : servers) {
+            if (health.isAlive(server)) {
+                alive.add(server);
+            }
+        }
+        current = new Live(version, alive.isEmpty() ? all : factory.apply(alive));
+        live = current;
+        return current.locator;
+    }
+}
@@ -0,0 +1,120 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение с упреждающими запросами. Запрос отправляется на зеркало с наименьшим временем ответа, и если ответ не
+ * получен за время, в которое это зеркало обычно отвечает, запрос дополнительно отправляется на следующее по
+ * времени ответа зеркало. Используется первый полученный ответ, остальные отбрасываются как ответы на завершенный
+ * запрос.
+ * <p/>
+ * Время ответа серверов оценивается по ответам на все запросы клиента, которые учитывает {@link ServerTimeouts}.
+ */
+class HedgedRead implements Runnable, GenericFutureListener<Future<Object>> {
+
+    private final Promise<?> promise;
+    private final Transport transport;
+    private final ByteBuf packet;
+    private final InetSocketAddress[] servers;
+    private final LatencyTracker.ServerLatency[] latencies;
+    private final long timeout; // ns.
+
+    private int sent;
+    private boolean done;
+    private ScheduledFuture<?> hedge;
+
+    /**
+     * @param servers серверы зеркал, хранящие ключ
+     * @param timeout время ожидания ответа в нс.
+     */
+    HedgedRead(Promise<?> promise,
+               Transport transport,
+               ByteBuf packet,
+               InetSocketAddress[] servers,
+               ServerTimeouts timeouts,
+               long timeout) {
+        this.promise = promise;
+        this.transport = transport;
+        this.packet = packet;
+        this.servers = servers;
+        this.latencies = new LatencyTracker.ServerLatency[servers.length];
+        this.timeout = timeout;
+
+        // Зеркал немного, сортировка вставками. Серверы без замеров, например, не отвечающие, идут последними
+        for (int i = 0; i < servers.length; ++i) {
+            InetSocketAddress server = servers[i];
+            LatencyTracker.ServerLatency latency = timeouts.latency(server);
+            int j = i;
+            for (; j > 0 && isSlower(latencies[j - 1], latency); --j) {
+                servers[j] = servers[j - 1];
+                latencies[j] = latencies[j - 1];
+            }
+            servers[j] = server;
+            latencies[j] = latency;
+        }
+    }
+
+    private static boolean isSlower(LatencyTracker.ServerLatency first, LatencyTracker.ServerLatency second) {
+        if (!first.isMeasured()) {
+            return second.isMeasured();
+        }
+        return second.isMeasured() && first.srtt() > second.srtt();
+    }
+
+    void start() {
+        if (servers.length > 1) {
+            packet.retain(servers.length - 1);
+        }
+        synchronized (this) {
+            sendNext();
+        }
+        promise.addListener(this);
+    }
+
+    /**
+     * Отправляет упреждающий запрос.
+     */
+    @Override
+    public synchronized void run() {
+        if (!done && !promise.isDone()) {
+            sendNext();
+        }
+    }
+
+    @Override
+    public void operationComplete(Future<Object> future) {
+        int unsent;
+        synchronized (this) {
+            done = true;
+            unsent = servers.length - sent;
+            if (null != hedge) {
+                hedge.cancel(false);
+            }
+        }
+        if (unsent > 0) {
+            packet.release(unsent);
+        }
+    }
+
+    private long delay(LatencyTracker.ServerLatency latency) {
+        if (!latency.isMeasured()) {
+            return timeout / 2;
+        }
+        return Math.min(latency.upperBound(), timeout);
+    }
+
+    private void sendNext() {
+        int index = sent++;
+        transport.send(servers[index], packet);
+        if (sent < servers.length) {
+            hedge = transport.eventLoop().schedule(this, delay(latencies[index]), TimeUnit.NANOSECONDS);
+        }
+    }
+}
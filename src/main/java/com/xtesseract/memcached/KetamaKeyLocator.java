@@ -0,0 +1,137 @@
+package com.xtesseract.memcached;
+
+import io.netty.util.CharsetUtil;
+
+import java.net.InetSocketAddress;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Консистентное хеширование ketama. Каждому серверу соответствует 160 точек на кольце, ключ хранится на сервере
+ * ближайшей по часовой стрелке точки. При добавлении или удалении сервера меняется сервер только части ключей,
+ * приходившейся на этот сервер.
+ * <p/>
+ * Расположение ключей совпадает с libmemcached ({@code MEMCACHED_BEHAVIOR_KETAMA_COMPAT}) и spymemcached
+ * ({@code KetamaNodeKeyFormatter.Format.LIBMEMCACHED}) для серверов с одинаковым весом: точки сервера вычисляются
+ * по MD5 от строки {@code host-N} (или {@code host:port-N} для порта отличного от 11211).
+ */
+public class KetamaKeyLocator implements KeyLocator {
+
+    private static final int POINTS_PER_SERVER = 160;
+    private static final int POINTS_PER_HASH = 4;
+    private static final int DEFAULT_PORT = 11211;
+
+    /**
+     * Максимальная длина ключа memcached
+     */
+    private static final int MAX_KEY_LENGTH = 250;
+
+    private static final class Md5 {
+        private final MessageDigest digest;
+        private final byte[] result = new byte[16];
+        private final byte[] key = new byte[MAX_KEY_LENGTH];
+
+        Md5() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        byte[] digest(String value) {
+            int length = value.length();
+            if (length <= key.length && isAscii(value)) {
+                for (int i = 0; i < length; ++i) {
+                    key[i] = (byte) value.charAt(i);
+                }
+                digest.update(key, 0, length);
+            } else {
+                digest.update(value.getBytes(CharsetUtil.UTF_8));
+            }
+            try {
+                digest.digest(result, 0, result.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            return result;
+        }
+
+        private static boolean isAscii(String value) {
+            for (int i = 0; i < value.length(); ++i) {
+                if (value.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final ThreadLocal<Md5> MD5 = ThreadLocal.withInitial(Md5::new);
+
+    private final long[] points;
+    private final InetSocketAddress[] servers;
+
+    public KetamaKeyLocator(List<InetSocketAddress> servers) {
+        assert servers.size() > 0;
+
+        // Точка в старших разрядах, номер сервера в младших: сортировка упорядочивает точки
+        long[] ring = new long[servers.size() * POINTS_PER_SERVER];
+        int n = 0;
+        for (int i = 0; i < servers.size(); ++i) {
+            String serverKey = serverKey(servers.get(i));
+            for (int j = 0; j < POINTS_PER_SERVER / POINTS_PER_HASH; ++j) {
+                byte[] digest = MD5.get().digest(serverKey + "-" + j);
+                for (int h = 0; h < POINTS_PER_HASH; ++h) {
+                    ring[n++] = (hash(digest, h) << 20) | i;
+                }
+            }
+        }
+        Arrays.sort(ring);
+
+        int size = 0;
+        long[] points = new long[ring.length];
+        InetSocketAddress[] owners = new InetSocketAddress[ring.length];
+        for (long entry : ring) {
+            long point = entry >>> 20;
+            // При совпадении точек остается сервер с меньшим номером
+            if (size > 0 && points[size - 1] == point) {
+                continue;
+            }
+            points[size] = point;
+            owners[size] = servers.get((int) (entry & 0xfffff));
+            ++size;
+        }
+        this.points = Arrays.copyOf(points, size);
+        this.servers = Arrays.copyOf(owners, size);
+    }
+
+    @Override
+    public InetSocketAddress locate(String key) {
+        int index = Arrays.binarySearch(points, hash(MD5.get().digest(key), 0));
+        if (index < 0) {
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0;
+            }
+        }
+        return servers[index];
+    }
+
+    private static long hash(byte[] digest, int h) {
+        return ((long) (digest[3 + h * 4] & 0xff) << 24)
+                | ((long) (digest[2 + h * 4] & 0xff) << 16)
+                | ((long) (digest[1 + h * 4] & 0xff) << 8)
+                | (digest[h * 4] & 0xff);
+    }
+
+    private static String serverKey(InetSocketAddress server) {
+        if (DEFAULT_PORT == server.getPort()) {
+            return server.getHostString();
+        }
+        return server.getHostString() + ":" + server.getPort();
+    }
+}
@@ -0,0 +1,19 @@
+package com.xtesseract.memcached;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Определяет сервер зеркала, на котором хранится ключ.
+ *
+ * @see KetamaKeyLocator
+ * @see ModuloKeyLocator
+ * @see ClientBuilder#setKeyLocator(java.util.function.Function)
+ */
+public interface KeyLocator {
+
+    /**
+     * @param key ключ
+     * @return сервер, на котором хранится ключ
+     */
+    InetSocketAddress locate(String key);
+}
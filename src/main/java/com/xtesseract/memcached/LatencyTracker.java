@@ -0,0 +1,62 @@
+package com.xtesseract.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Оценки времени ответа серверов. Для каждого сервера хранится экспоненциально сглаженное среднее время ответа
+ * (srtt) и его среднее отклонение (rttvar), как при вычислении RTO в TCP (RFC 6298).
+ */
+class LatencyTracker {
+
+    /**
+     * Оценка времени ответа одного сервера. Обновления из разных потоков не синхронизируются: потеря отдельного
+     * замера не искажает сглаженную оценку.
+     */
+    static class ServerLatency {
+        private volatile long srtt; // ns.
+        private volatile long rttvar; // ns.
+
+        /**
+         * @param rtt время ответа в нс.
+         */
+        void update(long rtt) {
+            long s = srtt;
+            if (0 == s) {
+                rttvar = rtt / 2;
+                srtt = Math.max(rtt, 1);
+                return;
+            }
+            rttvar = rttvar - (rttvar >> 2) + (Math.abs(s - rtt) >> 2);
+            srtt = Math.max(s - (s >> 3) + (rtt >> 3), 1);
+        }
+
+        boolean isMeasured() {
+            return 0 != srtt;
+        }
+
+        /**
+         * @return сглаженное время ответа в нс., 0 если замеров не было
+         */
+        long srtt() {
+            return srtt;
+        }
+
+        /**
+         * @return время, за которое сервер отвечает на подавляющее большинство запросов, в нс.
+         */
+        long upperBound() {
+            return srtt + 4 * rttvar;
+        }
+    }
+
+    private final ConcurrentHashMap<InetSocketAddress, ServerLatency> servers = new ConcurrentHashMap<>();
+
+    ServerLatency get(InetSocketAddress server) {
+        ServerLatency latency = servers.get(server);
+        if (null == latency) {
+            latency = servers.computeIfAbsent(server, s -> new ServerLatency());
+        }
+        return latency;
+    }
+}
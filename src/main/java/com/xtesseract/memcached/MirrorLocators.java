@@ -0,0 +1,109 @@
+package com.xtesseract.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Размещение ключей по серверам зеркал {@link Topology топологии}. При замене зеркал для каждого зеркала один раз
+ * строится {@link KeyLocator}, из которых составляются таблицы всех ролей зеркал. Таблицы публикуются вместе, запрос
+ * только читает текущий массив своей роли.
+ */
+class MirrorLocators implements Runnable {
+
+    /**
+     * Роль зеркал в отправке запросов
+     */
+    enum Role {
+        /**
+         * Зеркала для чтения и записи
+         */
+        READ_WRITE,
+        /**
+         * Зеркала только для записи
+         */
+        WRITE_ONLY,
+        /**
+         * Все зеркала
+         */
+        ALL,
+        /**
+         * Первое зеркало для чтения и записи, на котором выполняются команды с проверкой версии
+         */
+        CAS,
+        /**
+         * Зеркала, которым передается значение после успешной установки с проверкой версии
+         */
+        REPLICAS
+    }
+
+    private final Topology topology;
+    private final Function<List<InetSocketAddress>, KeyLocator> factory;
+
+    // Таблицы по ролям, массивы не изменяются
+    private volatile KeyLocator[][] locators;
+
+    /**
+     * @param factory создает размещение ключей по серверам одного зеркала
+     */
+    MirrorLocators(Topology topology, Function<List<InetSocketAddress>, KeyLocator> factory) {
+        this.topology = topology;
+        this.factory = factory;
+        run();
+        topology.addListener(this);
+    }
+
+    /**
+     * @return размещение ключей по зеркалам роли, массив не изменяется
+     */
+    KeyLocator[] get(Role role) {
+        return locators[role.ordinal()];
+    }
+
+    /**
+     * @return текущие зеркала роли
+     */
+    Supplier<KeyLocator[]> view(Role role) {
+        return () -> get(role);
+    }
+
+    /**
+     * @return {@code true}, если у роли есть зеркала
+     */
+    boolean has(Role role) {
+        return get(role).length > 0;
+    }
+
+    /**
+     * Пересчитывает таблицы размещения по текущим зеркалам топологии.
+     */
+    @Override
+    public void run() {
+        KeyLocator[] readWrite = locators(topology.readWriteMirrors());
+        KeyLocator[] writeOnly = locators(topology.writeOnlyMirrors());
+
+        KeyLocator[][] result = new KeyLocator[Role.values().length][];
+        result[Role.READ_WRITE.ordinal()] = readWrite;
+        result[Role.WRITE_ONLY.ordinal()] = writeOnly;
+        result[Role.ALL.ordinal()] = concat(readWrite, writeOnly);
+        result[Role.CAS.ordinal()] = Arrays.copyOf(readWrite, Math.min(1, readWrite.length));
+        result[Role.REPLICAS.ordinal()] = concat(Arrays.copyOfRange(readWrite, Math.min(1, readWrite.length), readWrite.length), writeOnly);
+        locators = result;
+    }
+
+    private KeyLocator[] locators(List<List<InetSocketAddress>> mirrors) {
+        KeyLocator[] result = new KeyLocator[mirrors.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = factory.apply(mirrors.get(i));
+        }
+        return result;
+    }
+
+    private static KeyLocator[] concat(KeyLocator[] first, KeyLocator[] second) {
+        KeyLocator[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
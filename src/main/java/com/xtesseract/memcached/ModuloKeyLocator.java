@@ -0,0 +1,22 @@
+package com.xtesseract.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Выбирает сервер по остатку от деления {@link String#hashCode()} ключа на количество серверов. При изменении
+ * количества серверов меняется сервер почти всех ключей.
+ */
+public class ModuloKeyLocator implements KeyLocator {
+
+    private final InetSocketAddress[] servers;
+
+    public ModuloKeyLocator(List<InetSocketAddress> servers) {
+        this.servers = servers.toArray(new InetSocketAddress[servers.size()]);
+    }
+
+    @Override
+    public InetSocketAddress locate(String key) {
+        return servers[Math.floorMod(key.hashCode(), servers.length)];
+    }
+}
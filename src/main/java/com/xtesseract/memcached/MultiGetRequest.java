@@ -0,0 +1,173 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.xtesseract.memcached.ProtocolHelper.COMMAND_HEADER_LENGTH;
+import static com.xtesseract.memcached.ProtocolHelper.UDP_HEADER_LENGTH;
+
+/**
+ * Пакетное получение значений нескольких ключей. Ключи одного сервера упаковываются в датаграммы из команд
+ * {@link Operation#GET_KQ}, каждая датаграмма завершается командой {@link Operation#NOOP}. Ответ на NOOP означает,
+ * что ключи датаграммы, значения которых не были получены, в кеше отсутствуют.
+ * <p/>
+ * Все методы, кроме конструктора, должны вызываться из event loop клиента.
+ */
+class MultiGetRequest<T> {
+
+    /**
+     * Ожидание ответа на одну датаграмму. Успешно завершается при получении ответа на NOOP.
+     */
+    static class Batch extends DefaultPromise<Void> {
+        private final MultiGetRequest<?> request;
+
+        Batch(EventExecutor executor, MultiGetRequest<?> request) {
+            super(executor);
+            this.request = request;
+        }
+
+        /**
+         * @param key   ключ
+         * @param flags флаги значения
+         * @param body  значение, действительное только во время вызова
+         */
+        void hit(String key, int flags, ByteBuf body) {
+            request.hit(executor(), key, flags, body);
+        }
+    }
+
+    private final AbstractClient client;
+    private final Promise<Map<String, T>> promise;
+    private final Transcoder<T> transcoder;
+    private final int maxDatagramSize;
+
+    private final Map<String, T> values = new HashMap<>();
+    private final Set<String> unresolved;
+    private int pending;
+
+    MultiGetRequest(AbstractClient client,
+                    Promise<Map<String, T>> promise,
+                    Transcoder<T> transcoder,
+                    Collection<String> keys,
+                    int maxDatagramSize) {
+        this.client = client;
+        this.promise = promise;
+        this.transcoder = transcoder;
+        this.maxDatagramSize = maxDatagramSize;
+        this.unresolved = new LinkedHashSet<>(keys);
+    }
+
+    boolean isDone() {
+        return promise.isDone();
+    }
+
+    /**
+     * Продлевает ожидание результата, например, на время до повторной отправки на другое зеркало.
+     */
+    void retain() {
+        ++pending;
+    }
+
+    /**
+     * Завершает ожидание начатое {@link #retain()}.
+     */
+    void release() {
+        --pending;
+        tryComplete();
+    }
+
+    /**
+     * Отправляет запрос значений ключей на сервер, упаковывая их в минимальное количество датаграмм.
+     *
+     * @param server сервер memcached
+     * @param keys   ключи, хранящиеся на сервере
+     */
+    void send(InetSocketAddress server, Collection<String> keys) {
+        List<String> batchKeys = new ArrayList<>();
+        List<byte[]> batchKeyBytes = new ArrayList<>();
+        int size = UDP_HEADER_LENGTH + COMMAND_HEADER_LENGTH;
+        for (String key : keys) {
+            byte[] keyBytes = key.getBytes(CharsetUtil.UTF_8);
+            int frameSize = COMMAND_HEADER_LENGTH + keyBytes.length;
+            if (!batchKeys.isEmpty() && size + frameSize > maxDatagramSize) {
+                sendBatch(server, batchKeys, batchKeyBytes);
+                batchKeys = new ArrayList<>();
+                batchKeyBytes = new ArrayList<>();
+                size = UDP_HEADER_LENGTH + COMMAND_HEADER_LENGTH;
+            }
+            batchKeys.add(key);
+            batchKeyBytes.add(keyBytes);
+            size += frameSize;
+        }
+        if (!batchKeys.isEmpty()) {
+            sendBatch(server, batchKeys, batchKeyBytes);
+        }
+    }
+
+    /**
+     * @return ключи, значения которых еще не получены
+     */
+    Collection<String> unresolvedKeys() {
+        return unresolved;
+    }
+
+    private void hit(EventExecutor executor, String key, int flags, ByteBuf body) {
+        T value;
+        try {
+            value = transcoder.decode(flags, body);
+        } catch (Throwable e) {
+            promise.tryFailure(e);
+            return;
+        }
+
+        // Ответы TCP транспорта приходят в event loop соединения
+        if (executor.inEventLoop()) {
+            hit(key, value);
+        } else {
+            executor.execute(() -> hit(key, value));
+        }
+    }
+
+    private void hit(String key, T value) {
+        if (unresolved.remove(key)) {
+            values.put(key, value);
+            tryComplete();
+        } else {
+            ReferenceCountUtil.release(value);
+        }
+    }
+
+    private void sendBatch(InetSocketAddress server, List<String> keys, List<byte[]> keyBytes) {
+        Batch batch = new Batch(client.executor(), this);
+        ++pending;
+        batch.addListener(f -> {
+            --pending;
+            if (f.isSuccess()) {
+                for (String key : keys) {
+                    unresolved.remove(key);
+                }
+            }
+            tryComplete();
+        });
+        client.sendBatch(batch, server, keyBytes);
+    }
+
+    private void tryComplete() {
+        if (unresolved.isEmpty() || 0 == pending) {
+            promise.trySuccess(values);
+        }
+    }
+}
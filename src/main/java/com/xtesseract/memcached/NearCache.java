@@ -0,0 +1,246 @@
+package com.xtesseract.memcached;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Локальный кеш значений перед memcached. Ограничен количеством записей и суммарным размером значений, записи
+ * живут не дольше заданного времени. Вытеснение по алгоритму CLOCK: чтение только отмечает запись как
+ * использованную и не берет блокировок, при вставке стрелка обходит записи, снимая отметки, и вытесняет первую
+ * неотмеченную.
+ * <p>
+ * Значения хранятся в закодированном виде вместе с флагами и декодируются при каждом чтении, поэтому кеш не зависит
+ * от {@link Transcoder преобразователя}, а вызывающий получает собственную копию значения.
+ * <p>
+ * Время жизни, заданное ключу изменением через этот клиент, ограничивает время жизни записей: значение не
+ * читается из кеша после того, как истекло в memcached.
+ */
+class NearCache {
+
+    static final class Entry {
+        final String key;
+        final int flags;
+        final byte[] value;
+        final long expiresAt; // ns.
+
+        volatile boolean referenced;
+        int slot;
+
+        Entry(String key, int flags, byte[] value, long expiresAt) {
+            this.key = key;
+            this.flags = flags;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final int STAMPS = 1024;
+    // Большее время жизни memcached считает абсолютным временем в секундах
+    private static final int MAX_RELATIVE_EXP = 60 * 60 * 24 * 30;
+
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final long maxBytes;
+    private final long ttl; // ns.
+
+    /*
+     * Счетчики изменений ключей, распределенные по хешу ключа. Значение, прочитанное до изменения ключа, не
+     * попадает в кеш, даже если ответ пришел после изменения
+     */
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMPS);
+    /*
+     * Ближайшее время истечения ключей, измененных с временем жизни, по тем же группам ключей, в нс.; 0 - нет
+     * ограничения. Ограничение группы сокращает время жизни и других ее ключей, что не нарушает согласованности
+     */
+    private final AtomicLongArray expiries = new AtomicLongArray(STAMPS);
+
+    // Защищены this
+    private final Entry[] clock;
+    private final int[] free;
+    private int freeCount;
+    private int hand;
+    private long bytes;
+
+    /**
+     * @param maxEntries максимальное количество записей
+     * @param maxBytes   максимальный суммарный размер значений в байтах
+     * @param ttl        время жизни записи в нс.
+     */
+    NearCache(int maxEntries, long maxBytes, long ttl) {
+        this.entries = new ConcurrentHashMap<>(maxEntries * 4 / 3 + 1);
+        this.clock = new Entry[maxEntries];
+        this.free = new int[maxEntries];
+        for (int i = 0; i < maxEntries; ++i) {
+            free[i] = maxEntries - 1 - i;
+        }
+        this.freeCount = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param now текущее время в нс.
+     * @return запись или {@code null}, если ключа нет в кеше или время жизни записи истекло
+     */
+    Entry get(String key, long now) {
+        Entry entry = entries.get(key);
+        if (null == entry) {
+            return null;
+        }
+        if (now - entry.expiresAt >= 0) {
+            synchronized (this) {
+                remove(entry);
+            }
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry;
+    }
+
+    /**
+     * @return отметка, которую нужно передать в {@link #put}, получив значение ключа
+     */
+    long stamp(String key) {
+        return stamps.get(stampIndex(key));
+    }
+
+    /**
+     * Сохраняет значение, если ключ не изменялся после получения {@code stamp}.
+     *
+     * @param stamp отметка, полученная до отправки запроса
+     * @param now   текущее время в нс.
+     */
+    void put(String key, long stamp, int flags, byte[] value, long now) {
+        int index = stampIndex(key);
+        if (stamps.get(index) != stamp || value.length > maxBytes) {
+            return;
+        }
+
+        long expiresAt = now + ttl;
+        long expiry = expiries.get(index);
+        if (0 != expiry && expiry - now > 0 && expiry - expiresAt < 0) {
+            expiresAt = expiry;
+        }
+        Entry entry = new Entry(key, flags, value, expiresAt);
+        synchronized (this) {
+            Entry previous = entries.get(key);
+            if (null != previous) {
+                remove(previous);
+            }
+            while (bytes + value.length > maxBytes) {
+                evict();
+            }
+            int slot = freeSlot();
+            entry.slot = slot;
+            clock[slot] = entry;
+            bytes += value.length;
+            entries.put(key, entry);
+
+            // Ключ мог измениться между проверкой и вставкой, и invalidate не нашел записи
+            if (stamps.get(index) != stamp) {
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Удаляет значение ключа. Вызывается при изменении ключа этим клиентом.
+     */
+    void invalidate(String key) {
+        stamps.incrementAndGet(stampIndex(key));
+        Entry entry = entries.get(key);
+        if (null != entry) {
+            synchronized (this) {
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Удаляет значение ключа, которому изменение задает время жизни.
+     *
+     * @param exp время жизни в формате memcached: 0 - без ограничения, до 30 дней - в секундах, иначе - абсолютное
+     *            время в секундах
+     * @param now текущее время в нс.
+     */
+    void invalidate(String key, int exp, long now) {
+        if (0 != exp) {
+            int index = stampIndex(key);
+            long seconds = exp <= MAX_RELATIVE_EXP ? exp : exp - TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            long deadline = now + TimeUnit.SECONDS.toNanos(Math.max(seconds, 0));
+            long current = expiries.get(index);
+            while ((0 == current || current - now <= 0 || deadline - current < 0) && !expiries.compareAndSet(index, current, deadline)) {
+                current = expiries.get(index);
+            }
+        }
+        invalidate(key);
+    }
+
+    /**
+     * Удаляет все значения. Вызывается после изменения множества ключей.
+     */
+    void clear() {
+        for (int i = 0; i < STAMPS; ++i) {
+            stamps.incrementAndGet(i);
+        }
+        synchronized (this) {
+            for (Entry entry : clock) {
+                if (null != entry) {
+                    remove(entry);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return свободная ячейка, при необходимости освобожденная вытеснением записи
+     */
+    private int freeSlot() {
+        if (0 == freeCount) {
+            evict();
+        }
+        return free[--freeCount];
+    }
+
+    /**
+     * Вытесняет запись, на которую первой укажет стрелка без отметки об использовании. Кеш не должен быть пуст.
+     */
+    private void evict() {
+        while (true) {
+            Entry entry = clock[hand];
+            hand = next(hand);
+            if (null == entry) {
+                continue;
+            }
+            if (!entry.referenced) {
+                remove(entry);
+                return;
+            }
+            entry.referenced = false;
+        }
+    }
+
+    private int next(int slot) {
+        return slot + 1 == clock.length ? 0 : slot + 1;
+    }
+
+    private void remove(Entry entry) {
+        if (clock[entry.slot] == entry) {
+            clock[entry.slot] = null;
+            free[freeCount++] = entry.slot;
+            bytes -= entry.value.length;
+            entries.remove(entry.key, entry);
+        }
+    }
+
+    private static int stampIndex(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STAMPS - 1);
+    }
+}
@@ -0,0 +1,352 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Клиент, отвечающий на {@link #get} из {@link NearCache локального кеша}. Промахи читаются из memcached и
+ * сохраняются в кеше, изменения ключей через этот клиент удаляют их из кеша. Изменения, сделанные другими
+ * клиентами, становятся видны после истечения времени жизни записи.
+ * <p/>
+ * Ключ удаляется из кеша до отправки изменения и еще раз после его выполнения: чтение, отправленное до того, как
+ * сервер выполнил изменение, получает прежнее значение, а его отметка уже не отличается от отметки после первого
+ * удаления. Завершение тихих команд неизвестно, поэтому повторное удаление выполняется, когда истекает время
+ * ожидания ответа на такие чтения: ключи тихих команд собираются в очередь, которую разбирает одна периодическая
+ * задача.
+ */
+class NearCacheClient implements Client {
+
+    /**
+     * Сохраняет закодированное значение в кеше и передает декодирование исходному преобразователю
+     */
+    private final class CachingTranscoder<T> implements Transcoder<T> {
+        private final Transcoder<T> transcoder;
+        private final String key;
+        private final long stamp;
+
+        CachingTranscoder(Transcoder<T> transcoder, String key, long stamp) {
+            this.transcoder = transcoder;
+            this.key = key;
+            this.stamp = stamp;
+        }
+
+        @Override
+        public int encode(T value, ByteBuf out) {
+            return transcoder.encode(value, out);
+        }
+
+        @Override
+        public T decode(int flags, ByteBuf in) {
+            byte[] value = new byte[in.readableBytes()];
+            in.getBytes(in.readerIndex(), value);
+            cache.put(key, stamp, flags, value, System.nanoTime());
+            return transcoder.decode(flags, in);
+        }
+    }
+
+    /**
+     * Ключ, измененный тихой командой, и время его повторного удаления
+     */
+    private static final class QuietWrite {
+        private final String key;
+        private final long deadline; // ns.
+
+        QuietWrite(String key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+    }
+
+    private final Client client;
+    private final NearCache cache;
+    private final ClientMetrics metrics;
+    private final long quietDelay; // ns.
+    // Упорядочены по времени повторного удаления: задержка одинакова для всех команд
+    private final Queue<QuietWrite> quietWrites = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param executor   выполняет повторное удаление ключей после тихих команд
+     * @param quietDelay время, после которого завершены все чтения, отправленные до тихой команды, в мс.
+     * @param period     период повторного удаления ключей после тихих команд в мс.
+     */
+    NearCacheClient(Client client, NearCache cache, ClientMetrics metrics, EventExecutorGroup executor, long quietDelay, long period) {
+        this.client = client;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.quietDelay = TimeUnit.MILLISECONDS.toNanos(quietDelay);
+        executor.scheduleAtFixedRate(this::invalidateQuiet, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void addQ(String key, int exp, String value) {
+        cache.invalidate(key, exp, System.nanoTime());
+        client.addQ(key, exp, value);
+        invalidateLater(key);
+    }
+
+    @Override
+    public <T> void addQ(String key, int exp, T value, Transcoder<T> transcoder) {
+        cache.invalidate(key, exp, System.nanoTime());
+        client.addQ(key, exp, value, transcoder);
+        invalidateLater(key);
+    }
+
+    @Override
+    public <T> Promise<Void> append(String key, T value, Transcoder<T> transcoder) {
+        cache.invalidate(key);
+        return invalidateOnComplete(key, client.append(key, value, transcoder));
+    }
+
+    @Override
+    public <T> void appendQ(String key, T value, Transcoder<T> transcoder) {
+        cache.invalidate(key);
+        client.appendQ(key, value, transcoder);
+        invalidateLater(key);
+    }
+
+    @Override
+    public <T> Promise<Void> cas(String key, int exp, T value, long cas, Transcoder<T> transcoder) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return invalidateOnComplete(key, client.cas(key, exp, value, cas, transcoder));
+    }
+
+    @Override
+    public <T> Promise<T> casUpdate(String key, int exp, Function<T, T> update, Transcoder<T> transcoder) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return invalidateOnComplete(key, client.casUpdate(key, exp, update, transcoder));
+    }
+
+    @Override
+    public Promise<Long> dec(String key, int exp) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return invalidateOnComplete(key, client.dec(key, exp));
+    }
+
+    @Override
+    public Promise<Long> dec(String key, int exp, long incValue, long initialValue) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return invalidateOnComplete(key, client.dec(key, exp, incValue, initialValue));
+    }
+
+    @Override
+    public void decQ(String key, int exp, long incValue, long initialValue) {
+        cache.invalidate(key, exp, System.nanoTime());
+        client.decQ(key, exp, incValue, initialValue);
+        invalidateLater(key);
+    }
+
+    @Override
+    public Promise<Void> delete(String key) {
+        cache.invalidate(key);
+        return invalidateOnComplete(key, client.delete(key));
+    }
+
+    @Override
+    public void deleteQ(String key) {
+        cache.invalidate(key);
+        client.deleteQ(key);
+        invalidateLater(key);
+    }
+
+    @Override
+    public <T> Promise<T> gat(String key, int exp, Transcoder<T> transcoder) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return client.gat(key, exp, transcoder);
+    }
+
+    @Override
+    public <T> Promise<T> gatQ(String key, int exp, Transcoder<T> transcoder) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return client.gatQ(key, exp, transcoder);
+    }
+
+    @Override
+    public Promise<String> get(String key) {
+        return get(key, Transcoders.STRING);
+    }
+
+    /**
+     * При попадании в кеш возвращает уже выполненное обещание, не обращаясь к event loop.
+     */
+    @Override
+    public <T> Promise<T> get(String key, Transcoder<T> transcoder) {
+        long now = System.nanoTime();
+        NearCache.Entry entry = cache.get(key, now);
+        if (null == entry) {
+            metrics.nearCacheMiss();
+            return client.get(key, new CachingTranscoder<>(transcoder, key, cache.stamp(key)));
+        }
+
+        metrics.nearCacheHit();
+        Promise<T> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+        try {
+            promise.setSuccess(transcoder.decode(entry.flags, Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(entry.value))));
+        } catch (Throwable e) {
+            promise.setFailure(e);
+        }
+        return promise;
+    }
+
+    @Override
+    public Promise<Map<String, String>> getMulti(Collection<String> keys) {
+        return client.getMulti(keys);
+    }
+
+    @Override
+    public <T> Promise<Void> getAll(Iterator<String> keys, Transcoder<T> transcoder, BiConsumer<String, T> consumer) {
+        return client.getAll(keys, transcoder, consumer);
+    }
+
+    @Override
+    public <T> Promise<Map<String, T>> getMulti(Collection<String> keys, Transcoder<T> transcoder) {
+        return client.getMulti(keys, transcoder);
+    }
+
+    @Override
+    public <T> Promise<CasValue<T>> gets(String key, Transcoder<T> transcoder) {
+        return client.gets(key, transcoder);
+    }
+
+    @Override
+    public Promise<Long> inc(String key, int exp) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return invalidateOnComplete(key, client.inc(key, exp));
+    }
+
+    @Override
+    public Promise<Long> inc(String key, int exp, long incValue, long initialValue) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return invalidateOnComplete(key, client.inc(key, exp, incValue, initialValue));
+    }
+
+    @Override
+    public void incQ(String key, int exp, long incValue, long initialValue) {
+        cache.invalidate(key, exp, System.nanoTime());
+        client.incQ(key, exp, incValue, initialValue);
+        invalidateLater(key);
+    }
+
+    @Override
+    public <T> Promise<Void> prepend(String key, T value, Transcoder<T> transcoder) {
+        cache.invalidate(key);
+        return invalidateOnComplete(key, client.prepend(key, value, transcoder));
+    }
+
+    @Override
+    public <T> void prependQ(String key, T value, Transcoder<T> transcoder) {
+        cache.invalidate(key);
+        client.prependQ(key, value, transcoder);
+        invalidateLater(key);
+    }
+
+    @Override
+    public void replaceQ(String key, int exp, String value) {
+        cache.invalidate(key, exp, System.nanoTime());
+        client.replaceQ(key, exp, value);
+        invalidateLater(key);
+    }
+
+    @Override
+    public <T> void replaceQ(String key, int exp, T value, Transcoder<T> transcoder) {
+        cache.invalidate(key, exp, System.nanoTime());
+        client.replaceQ(key, exp, value, transcoder);
+        invalidateLater(key);
+    }
+
+    @Override
+    public Promise<Void> set(String key, int exp, String value) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return invalidateOnComplete(key, client.set(key, exp, value));
+    }
+
+    @Override
+    public <T> Promise<Void> set(String key, int exp, T value, Transcoder<T> transcoder) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return invalidateOnComplete(key, client.set(key, exp, value, transcoder));
+    }
+
+    @Override
+    public <T> Promise<Long> setAll(Iterator<? extends Map.Entry<String, T>> entries, int exp, Transcoder<T> transcoder) {
+        // Ключи удаляются из кеша по мере того, как клиент берет их из итератора. Записанные ключи не хранятся,
+        // поэтому после завершения записи очищается весь кеш
+        return client.setAll(new Iterator<Map.Entry<String, T>>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, T> next() {
+                Map.Entry<String, T> entry = entries.next();
+                cache.invalidate(entry.getKey(), exp, System.nanoTime());
+                return entry;
+            }
+        }, exp, transcoder).addListener((Future<Long> future) -> cache.clear());
+    }
+
+    @Override
+    public void setQ(String key, int exp, String value) {
+        cache.invalidate(key, exp, System.nanoTime());
+        client.setQ(key, exp, value);
+        invalidateLater(key);
+    }
+
+    @Override
+    public <T> void setQ(String key, int exp, T value, Transcoder<T> transcoder) {
+        cache.invalidate(key, exp, System.nanoTime());
+        client.setQ(key, exp, value, transcoder);
+        invalidateLater(key);
+    }
+
+    @Override
+    public Promise<Void> touch(String key, int exp) {
+        cache.invalidate(key, exp, System.nanoTime());
+        return client.touch(key, exp);
+    }
+
+    /**
+     * Ожидающие обещания потоки пробуждаются раньше вызова его обработчиков, поэтому возвращается обещание,
+     * завершаемое после повторного удаления: чтение после завершения записи не может сохранить прежнее значение.
+     */
+    private <V> Promise<V> invalidateOnComplete(String key, Promise<V> promise) {
+        Promise<V> result = ImmediateEventExecutor.INSTANCE.newPromise();
+        promise.addListener((Future<V> future) -> {
+            cache.invalidate(key);
+            if (future.isSuccess()) {
+                result.trySuccess(future.getNow());
+            } else {
+                result.tryFailure(future.cause());
+            }
+        });
+        return result;
+    }
+
+    private void invalidateLater(String key) {
+        quietWrites.add(new QuietWrite(key, System.nanoTime() + quietDelay));
+    }
+
+    /**
+     * Повторно удаляет ключи тихих команд, время ожидания чтений которых истекло.
+     */
+    private void invalidateQuiet() {
+        long now = System.nanoTime();
+        QuietWrite write;
+        while (null != (write = quietWrites.peek()) && now - write.deadline >= 0) {
+            quietWrites.poll();
+            cache.invalidate(write.key);
+        }
+    }
+}
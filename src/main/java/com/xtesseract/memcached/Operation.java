@@ -33,4 +33,26 @@ public class Operation {
     public static final byte FLUSH_Q = 0x18;
     public static final byte APPEND_Q = 0x19;
     public static final byte PREPEND_Q = 0x1A;
+    public static final byte TOUCH = 0x1C;
+    public static final byte GAT = 0x1D;
+    public static final byte GAT_Q = 0x1E;
+
+    /**
+     * Тихие команды записи, сервер не отвечает на них при успешном выполнении
+     */
+    static boolean isQuiet(byte opCode) {
+        switch (opCode) {
+            case SET_Q:
+            case ADD_Q:
+            case REPLACE_Q:
+            case DELETE_Q:
+            case INCREMENT_Q:
+            case DECREMENT_Q:
+            case APPEND_Q:
+            case PREPEND_Q:
+                return true;
+            default:
+                return false;
+        }
+    }
 }
@@ -5,17 +5,21 @@ package com.xtesseract.memcached;
  */
 public class OperationError extends RuntimeException {
 
+    public static final int KEY_NOT_FOUND = 0x01;
+    public static final int KEY_EXISTS = 0x02;
+    public static final int NOT_STORED = 0x05;
+
     private static String statusDescription(int status) {
         switch (status) {
-            case 0x01:
+            case KEY_NOT_FOUND:
                 return "Key not found";
-            case 0x02:
+            case KEY_EXISTS:
                 return "Key exists";
             case 0x03:
                 return "Value too large";
             case 0x04:
                 return "Invalid arguments";
-            case 0x05:
+            case NOT_STORED:
                 return "Item not stored";
             case 0x06:
                 return "Incr/Decr on non-numeric value.";
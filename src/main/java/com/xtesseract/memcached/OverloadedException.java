@@ -0,0 +1,14 @@
+package com.xtesseract.memcached;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Запрос не отправлен из-за перегрузки: превышено количество запросов, ожидающих ответа, либо переполнен буфер
+ * исходящих сообщений канала.
+ */
+public class OverloadedException extends RejectedExecutionException {
+
+    public OverloadedException(String message) {
+        super(message);
+    }
+}
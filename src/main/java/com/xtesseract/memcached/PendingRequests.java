@@ -0,0 +1,323 @@
+package com.xtesseract.memcached;
+
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Таблица запросов, ожидающих ответа. Запросу выделяется opaque, младшие биты которого задают ячейку кольцевого
+ * массива фиксированного размера, а старшие служат поколением ячейки: ответ на запрос, ожидание которого уже
+ * завершено, не найдет в ячейке свой opaque. Таблица не блокирует потоки и не создает объектов на запрос.
+ * <p/>
+ * Запрос ожидает ответа не меньше минимального времени ожидания, отправка запроса серверу может
+ * {@link #extend продлить} ожидание. Истекшие запросы находятся периодическим просмотром последовательности opaque
+ * от первого ожидающего ответа: порядок opaque совпадает с порядком регистрации, поэтому просмотр заканчивается на
+ * запросах, зарегистрированных позже минимального времени ожидания. Если время ожидания всех запросов одинаково,
+ * просматриваются только истекшие запросы.
+ * <p/>
+ * Для каждого запроса запоминаются первая и последняя отправка серверу, по которым время ответа сервера считается
+ * от отправки именно ему, а не от регистрации запроса: упреждающие и повторные запросы отправляются позже.
+ */
+class PendingRequests {
+
+    interface ExpirationHandler {
+        void expired(int opaque, Promise<?> promise);
+    }
+
+    /**
+     * opaque запросов, ответы на которые не нужны и не считаются опоздавшими. Не выдается другим запросам
+     */
+    static final int UNTRACKED = 0;
+
+    /**
+     * Ячейка занята запросом, opaque которого еще не записан
+     */
+    private static final Object RESERVED = new Object();
+
+    private final AtomicReferenceArray<Object> promises;
+    private final AtomicIntegerArray opaques;
+    // Запись и чтение упорядочены публикацией обещания
+    private final long[] registeredAt; // ns.
+    private final AtomicLongArray deadlines; // ns.
+    // Первая и последняя отправка запроса: серверы и время в нс., по две ячейки на запрос
+    private final AtomicReferenceArray<InetSocketAddress> servers;
+    private final AtomicLongArray sentAt;
+    // Код команды первой отправки, публикуется записью первого сервера
+    private final byte[] opCodes;
+    private final int mask;
+    private final long timeout; // ns.
+
+    private final AtomicInteger counter;
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Изменяются только в потоке, выполняющем expire
+    private int sweepLimit;
+    private volatile int swept;
+
+    /**
+     * @param capacity  максимальное количество запросов, ожидающих ответа, округляется вверх до степени двойки
+     * @param initialId начальное значение opaque
+     * @param timeout   минимальное время ожидания ответа в нс.
+     */
+    PendingRequests(int capacity, int initialId, long timeout) {
+        assert capacity > 0;
+
+        int length = Integer.highestOneBit(capacity);
+        if (length < capacity) {
+            length <<= 1;
+        }
+        this.promises = new AtomicReferenceArray<>(length);
+        this.opaques = new AtomicIntegerArray(length);
+        this.registeredAt = new long[length];
+        this.deadlines = new AtomicLongArray(length);
+        this.servers = new AtomicReferenceArray<>(length << 1);
+        this.sentAt = new AtomicLongArray(length << 1);
+        this.opCodes = new byte[length];
+        this.mask = length - 1;
+        this.timeout = timeout;
+        this.counter = new AtomicInteger(initialId);
+        this.sweepLimit = initialId;
+        this.swept = initialId;
+    }
+
+    /**
+     * @return новый opaque для запроса, не ожидающего ответа
+     */
+    int nextId() {
+        int opaque = counter.incrementAndGet();
+        return UNTRACKED == opaque ? counter.incrementAndGet() : opaque;
+    }
+
+    /**
+     * Регистрирует запрос, ожидающий ответа.
+     *
+     * @return opaque запроса
+     * @throws OverloadedException если все ячейки таблицы заняты
+     */
+    int register(Promise<?> promise) {
+        for (int attempt = 0; attempt <= mask; ++attempt) {
+            int opaque = counter.incrementAndGet();
+            int index = opaque & mask;
+            if (UNTRACKED != opaque && null == promises.get(index) && promises.compareAndSet(index, null, RESERVED)) {
+                // Обещание публикуется после opaque, поэтому прочитавший обещание видит его opaque
+                long now = System.nanoTime();
+                registeredAt[index] = now;
+                deadlines.lazySet(index, now + timeout);
+                servers.set(index << 1, null);
+                servers.set((index << 1) + 1, null);
+                opaques.set(index, opaque);
+                promises.set(index, promise);
+                size.incrementAndGet();
+                return opaque;
+            }
+        }
+        throw new OverloadedException("Too many pending requests: " + size.get());
+    }
+
+    /**
+     * @return обещание запроса или {@code null}, если ожидание ответа уже завершено
+     */
+    Promise<?> get(int opaque) {
+        int index = opaque & mask;
+        Object promise = promises.get(index);
+        if (promise instanceof Promise && opaques.get(index) == opaque) {
+            return (Promise<?>) promise;
+        }
+        return null;
+    }
+
+    /**
+     * Продлевает ожидание ответа на запрос. Ожидание не сокращается.
+     *
+     * @param deadline время окончания ожидания в нс.
+     */
+    void extend(int opaque, long deadline) {
+        int index = opaque & mask;
+        if (opaques.get(index) != opaque) {
+            return;
+        }
+        long current;
+        do {
+            current = deadlines.get(index);
+        } while (deadline - current > 0 && !deadlines.compareAndSet(index, current, deadline));
+    }
+
+    /**
+     * Завершает ожидание ответа.
+     *
+     * @return обещание запроса или {@code null}, если ожидание ответа уже завершено
+     */
+    Promise<?> remove(int opaque) {
+        int index = opaque & mask;
+        Object promise = promises.get(index);
+        // Ячейка могла быть освобождена и занята другим запросом, поэтому освобождается только прочитанное обещание
+        if (promise instanceof Promise && opaques.get(index) == opaque && promises.compareAndSet(index, promise, null)) {
+            size.decrementAndGet();
+            return (Promise<?>) promise;
+        }
+        return null;
+    }
+
+    /**
+     * Запоминает отправку запроса серверу. Первая отправка сохраняется, последующие заменяют последнюю.
+     *
+     * @param opCode код команды, для пакетного запроса код первой команды
+     * @param now    время отправки в нс.
+     */
+    void sent(int opaque, InetSocketAddress server, byte opCode, long now) {
+        int index = opaque & mask;
+        if (opaques.get(index) != opaque) {
+            return;
+        }
+        int entry = index << 1;
+        if (null == servers.get(entry)) {
+            opCodes[index] = opCode;
+        }
+        if (null != servers.get(entry) || !servers.compareAndSet(entry, null, server)) {
+            servers.set(++entry, server);
+        }
+        sentAt.set(entry, now);
+    }
+
+    /**
+     * @return сервер, которому запрос был отправлен первым, или {@code null}, если запрос не отправлялся или
+     * ячейка занята другим запросом
+     */
+    InetSocketAddress firstServer(int opaque) {
+        return server(opaque, 0);
+    }
+
+    /**
+     * @return сервер последней отправки, если запрос отправлялся больше одного раза, иначе {@code null}
+     */
+    InetSocketAddress lastServer(int opaque) {
+        return server(opaque, 1);
+    }
+
+    /**
+     * @return код команды первой отправки запроса, имеет смысл, если {@link #firstServer} не {@code null}
+     */
+    byte opCode(int opaque) {
+        return opCodes[opaque & mask];
+    }
+
+    /**
+     * Считает ожидающие ответа запросы, отправленные серверу первым или последним. Просматривает всю таблицу,
+     * поэтому предназначен для чтения метрик, а не для отправки запросов.
+     */
+    int pending(InetSocketAddress server) {
+        int result = 0;
+        for (int index = 0; index <= mask; ++index) {
+            int entry = index << 1;
+            if (promises.get(index) instanceof Promise
+                    && (server.equals(servers.get(entry)) || server.equals(servers.get(entry + 1)))) {
+                ++result;
+            }
+        }
+        return result;
+    }
+
+    private InetSocketAddress server(int opaque, int entry) {
+        int index = opaque & mask;
+        InetSocketAddress server = servers.get((index << 1) + entry);
+        return opaques.get(index) == opaque ? server : null;
+    }
+
+    /**
+     * @return время отправки запроса серверу в нс.; время регистрации, если запрос отправлялся в обход
+     * {@link #sent}; 0, если ожидание ответа уже завершено или время отправки этому серверу не сохранено
+     */
+    long sentAt(int opaque, InetSocketAddress server) {
+        int index = opaque & mask;
+        if (opaques.get(index) != opaque) {
+            return 0;
+        }
+        long registered = registeredAt[index];
+        int first = index << 1;
+        // Последняя отправка проверяется первой: повторный запрос тому же серверу отправлен позже
+        for (int entry = first + 1; entry >= first; --entry) {
+            if (server.equals(servers.get(entry))) {
+                // Время могло быть еще не записано, тогда в ячейке время предыдущего запроса
+                long time = sentAt.get(entry);
+                return time - registered >= 0 ? time : 0;
+            }
+        }
+        return null == servers.get(first) ? registered : 0;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return время регистрации запроса в нс. или 0, если ожидание ответа уже завершено
+     */
+    long registeredAt(int opaque) {
+        int index = opaque & mask;
+        if (opaques.get(index) != opaque) {
+            return 0;
+        }
+        return registeredAt[index];
+    }
+
+    /**
+     * Завершает ожидание запросов, таймаут которых истек. Вызывается периодически из одного потока. Просматриваются
+     * только запросы, получившие opaque до предыдущего вызова, чтобы не пропустить запрос, который еще
+     * регистрируется.
+     *
+     * @param now     текущее время в нс.
+     * @param handler получает запросы с истекшим таймаутом
+     */
+    void expire(long now, ExpirationHandler handler) {
+        int limit = sweepLimit;
+        sweepLimit = counter.get();
+
+        int cursor = swept;
+        // Курсор останавливается перед первым запросом, ожидание которого продолжается
+        boolean waiting = false;
+        while (cursor - limit < 0) {
+            int opaque = cursor + 1;
+            int index = opaque & mask;
+            // Курсор сдвигается до чтения ячейки: запрос, опубликованный позже, увидит это в isSwept
+            if (!waiting) {
+                swept = opaque;
+            }
+            Object promise = promises.get(index);
+            if (promise instanceof Promise && opaques.get(index) == opaque) {
+                if (registeredAt[index] + timeout - now > 0) {
+                    // Таймауты следующих запросов истекают не раньше
+                    if (!waiting) {
+                        swept = cursor;
+                    }
+                    return;
+                }
+                if (deadlines.get(index) - now > 0) {
+                    if (!waiting) {
+                        waiting = true;
+                        swept = cursor;
+                    }
+                } else if (promises.compareAndSet(index, promise, null)) {
+                    size.decrementAndGet();
+                    handler.expired(opaque, (Promise<?>) promise);
+                }
+            }
+            cursor = opaque;
+        }
+    }
+
+    /**
+     * @return {@code true}, если {@link #expire} уже просмотрел opaque и мог пропустить таймаут запроса,
+     * регистрация которого задержалась дольше периода просмотра
+     */
+    boolean isSwept(int opaque) {
+        return opaque - swept <= 0;
+    }
+}
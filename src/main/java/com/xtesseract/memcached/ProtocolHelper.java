@@ -1,9 +1,12 @@
 package com.xtesseract.memcached;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.Channel;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.util.CharsetUtil;
 
+import java.util.List;
+
 /**
  * Вспомогательный класс для формирования запросов к memcached
  *
@@ -17,10 +20,20 @@ public class ProtocolHelper {
     public static final int UDP_HEADER_LENGTH = 8;
     public static final int COMMAND_HEADER_LENGTH = 24;
 
+    public static final int TOTAL_BODY_LENGTH_OFFSET = 8;
+    public static final int OPAQUE_OFFSET = 12;
+    public static final int CAS_OFFSET = 16;
+
     public static final int SET_EXTRA_LENGTH = 8;
     public static final int INC_EXTRA_LENGTH = 20;
+    public static final int TOUCH_EXTRA_LENGTH = 4;
+
+    /**
+     * Размер датаграммы, гарантированно не фрагментируемой в типичной сети
+     */
+    public static final int DEFAULT_MAX_DATAGRAM_SIZE = 1400;
 
-    public static ByteBuf getIncPacket(Channel channel, int requestId, byte opCode, String key, int exp, long amountToAdd, long initialValue) {
+    public static ByteBuf getIncPacket(ByteBufAllocator alloc, int requestId, byte opCode, String key, int exp, long amountToAdd, long initialValue) {
         byte[] keyBytes = key.getBytes(CharsetUtil.UTF_8);
 
         int packetSize = UDP_HEADER_LENGTH +
@@ -30,7 +43,7 @@ public class ProtocolHelper {
 
         int totalDataLength = INC_EXTRA_LENGTH + keyBytes.length;
 
-        ByteBuf buf = channel.alloc().buffer(packetSize, packetSize);
+        ByteBuf buf = alloc.buffer(packetSize, packetSize);
         writeUdpHeader(buf, requestId, 0, 1);
         writePacketHeader(buf, requestId, opCode, totalDataLength, keyBytes.length, INC_EXTRA_LENGTH);
 
@@ -45,34 +58,163 @@ public class ProtocolHelper {
         return buf;
     }
 
-    public static ByteBuf getSetPacket(Channel channel, int requestId, byte opCode, String key, int exp, String value) {
+    /**
+     * Формирует датаграмму из нескольких команд {@code opCode} (по одной на каждый ключ), завершенную командой
+     * {@link Operation#NOOP}. Все команды датаграммы имеют одинаковый opaque равный {@code requestId}.
+     *
+     * @param alloc     аллокатор буфера
+     * @param requestId идентификатор запроса
+     * @param opCode    код команды, как правило {@link Operation#GET_KQ}
+     * @param keys      ключи в кодировке UTF-8
+     * @return датаграмма
+     */
+    public static ByteBuf getMultiKeyPacket(ByteBufAllocator alloc, int requestId, byte opCode, List<byte[]> keys) {
+        int packetSize = UDP_HEADER_LENGTH + COMMAND_HEADER_LENGTH * (keys.size() + 1);
+        for (byte[] keyBytes : keys) {
+            packetSize += keyBytes.length;
+        }
+
+        ByteBuf buf = alloc.buffer(packetSize, packetSize);
+        writeUdpHeader(buf, requestId, 0, 1);
+        for (byte[] keyBytes : keys) {
+            writePacketHeader(buf, requestId, opCode, keyBytes.length, keyBytes.length, 0);
+            buf.writeBytes(keyBytes);
+        }
+        writePacketHeader(buf, requestId, Operation.NOOP, 0, 0, 0);
+
+        return buf;
+    }
+
+    public static ByteBuf getSetPacket(ByteBufAllocator alloc, int requestId, byte opCode, String key, int exp, String value) {
+        return getSetPacket(alloc, requestId, opCode, key, exp, value, Transcoders.STRING);
+    }
+
+    /**
+     * Формирует запрос установки значения. Значение записывается в буфер запроса {@link Transcoder преобразователем},
+     * флаги значения задаются им же.
+     */
+    public static <T> ByteBuf getSetPacket(ByteBufAllocator alloc, int requestId, byte opCode, String key, int exp, T value, Transcoder<T> transcoder) {
+        return getSetPacket(alloc, requestId, opCode, key, exp, value, transcoder, 0);
+    }
+
+    /**
+     * Формирует запрос установки значения, который выполняется, только если версия значения на сервере равна
+     * {@code cas}.
+     *
+     * @param cas версия значения, полученная {@link Client#gets}, 0 - без проверки версии
+     */
+    public static <T> ByteBuf getSetPacket(ByteBufAllocator alloc, int requestId, byte opCode, String key, int exp, T value, Transcoder<T> transcoder, long cas) {
         byte[] keyBytes = key.getBytes(CharsetUtil.UTF_8);
-        byte[] valueBytes = value.getBytes(CharsetUtil.UTF_8);
 
-        int packetSize = UDP_HEADER_LENGTH +
+        int headerSize = UDP_HEADER_LENGTH +
                 COMMAND_HEADER_LENGTH +
                 SET_EXTRA_LENGTH +
+                keyBytes.length;
+
+        ByteBuf buf = alloc.buffer(headerSize + transcoder.sizeHint(value));
+        writeUdpHeader(buf, requestId, 0, 1);
+        int headerIndex = buf.writerIndex();
+        writePacketHeader(buf, requestId, opCode, 0, keyBytes.length, SET_EXTRA_LENGTH, cas);
+
+        // Extras
+        int flagsIndex = buf.writerIndex();
+        buf.writeInt(0); // flags
+        buf.writeInt(exp); // expiration time
+
+        // Body
+        buf.writeBytes(keyBytes);
+        int valueIndex = buf.writerIndex();
+        try {
+            buf.setInt(flagsIndex, transcoder.encode(value, buf));
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+
+        // Длина значения известна только после его записи
+        int totalDataLength = SET_EXTRA_LENGTH + keyBytes.length + buf.writerIndex() - valueIndex;
+        buf.setInt(headerIndex + TOTAL_BODY_LENGTH_OFFSET, totalDataLength);
+
+        return buf;
+    }
+
+    /**
+     * Формирует запрос дописывания значения в конец или начало существующего. Команды APPEND и PREPEND не имеют
+     * extras, флаги значения на сервере не изменяются, поэтому флаги {@link Transcoder преобразователя} игнорируются.
+     */
+    public static <T> ByteBuf getAppendPacket(ByteBufAllocator alloc, int requestId, byte opCode, String key, T value, Transcoder<T> transcoder) {
+        byte[] keyBytes = key.getBytes(CharsetUtil.UTF_8);
+
+        int headerSize = UDP_HEADER_LENGTH +
+                COMMAND_HEADER_LENGTH +
+                keyBytes.length;
+
+        ByteBuf buf = alloc.buffer(headerSize + transcoder.sizeHint(value));
+        writeUdpHeader(buf, requestId, 0, 1);
+        int headerIndex = buf.writerIndex();
+        writePacketHeader(buf, requestId, opCode, 0, keyBytes.length, 0);
+
+        // Body
+        buf.writeBytes(keyBytes);
+        int valueIndex = buf.writerIndex();
+        try {
+            transcoder.encode(value, buf);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+
+        int totalDataLength = keyBytes.length + buf.writerIndex() - valueIndex;
+        buf.setInt(headerIndex + TOTAL_BODY_LENGTH_OFFSET, totalDataLength);
+
+        return buf;
+    }
+
+    /**
+     * Формирует запрос изменения времени жизни ключа: {@link Operation#TOUCH}, {@link Operation#GAT} или
+     * {@link Operation#GAT_Q}.
+     */
+    public static ByteBuf getTouchPacket(ByteBufAllocator alloc, int requestId, byte opCode, String key, int exp) {
+        return getTouchPacket(alloc, requestId, opCode, key, exp, false);
+    }
+
+    /**
+     * Формирует запрос {@link Operation#GAT_Q}, завершенный командой {@link Operation#NOOP} с тем же opaque. Сервер
+     * не отвечает на GATQ для отсутствующего ключа, поэтому ответ на NOOP означает промах.
+     */
+    public static ByteBuf getQuietTouchPacket(ByteBufAllocator alloc, int requestId, String key, int exp) {
+        return getTouchPacket(alloc, requestId, Operation.GAT_Q, key, exp, true);
+    }
+
+    private static ByteBuf getTouchPacket(ByteBufAllocator alloc, int requestId, byte opCode, String key, int exp, boolean noop) {
+        byte[] keyBytes = key.getBytes(CharsetUtil.UTF_8);
+
+        int packetSize = UDP_HEADER_LENGTH +
+                COMMAND_HEADER_LENGTH +
+                TOUCH_EXTRA_LENGTH +
                 keyBytes.length +
-                valueBytes.length;
+                (noop ? COMMAND_HEADER_LENGTH : 0);
 
-        int totalDataLength = SET_EXTRA_LENGTH + keyBytes.length + valueBytes.length;
+        int totalDataLength = TOUCH_EXTRA_LENGTH + keyBytes.length;
 
-        ByteBuf buf = channel.alloc().buffer(packetSize, packetSize);
+        ByteBuf buf = alloc.buffer(packetSize, packetSize);
         writeUdpHeader(buf, requestId, 0, 1);
-        writePacketHeader(buf, requestId, opCode, totalDataLength, keyBytes.length, SET_EXTRA_LENGTH);
+        writePacketHeader(buf, requestId, opCode, totalDataLength, keyBytes.length, TOUCH_EXTRA_LENGTH);
 
         // Extras
-        buf.writeInt(0); // flags
         buf.writeInt(exp); // expiration time
 
         // Body
         buf.writeBytes(keyBytes);
-        buf.writeBytes(valueBytes);
+
+        if (noop) {
+            writePacketHeader(buf, requestId, Operation.NOOP, 0, 0, 0);
+        }
 
         return buf;
     }
 
-    public static ByteBuf getSimpleKeyPacket(Channel channel, int requestId, byte opCode, String key) {
+    public static ByteBuf getSimpleKeyPacket(ByteBufAllocator alloc, int requestId, byte opCode, String key) {
         byte[] keyBytes = key.getBytes(CharsetUtil.UTF_8);
 
         int packetSize = UDP_HEADER_LENGTH +
@@ -81,7 +223,7 @@ public class ProtocolHelper {
 
         int totalDataLength = keyBytes.length;
 
-        ByteBuf buf = channel.alloc().buffer(packetSize, packetSize);
+        ByteBuf buf = alloc.buffer(packetSize, packetSize);
         writeUdpHeader(buf, requestId, 0, 1);
         writePacketHeader(buf, requestId, opCode, totalDataLength, keyBytes.length, 0);
 
@@ -124,6 +266,19 @@ public class ProtocolHelper {
                                          int totalDataLength,
                                          int keyLength,
                                          int extraLength) {
+        writePacketHeader(buf, requestId, opCode, totalDataLength, keyLength, extraLength, 0);
+    }
+
+    /**
+     * @param cas версия значения, 0 - без проверки версии
+     */
+    public static void writePacketHeader(ByteBuf buf,
+                                         int requestId,
+                                         byte opCode,
+                                         int totalDataLength,
+                                         int keyLength,
+                                         int extraLength,
+                                         long cas) {
         buf.writeByte(REQUEST_PACKET_MAGIC); // Magic number
         buf.writeByte(opCode); // Command code
         buf.writeShort(keyLength);
@@ -132,7 +287,34 @@ public class ProtocolHelper {
         buf.writeShort(0); // Reserved
         buf.writeInt(totalDataLength); // Length in bytes of extra + key + value
         buf.writeInt(requestId); // Will be copied back to you in the response
-        buf.writeLong(0); // Data version check.
+        buf.writeLong(cas); // Data version check.
+    }
+
+    /**
+     * Формирует копию пакета с другим кодом команды. Заголовки копируются в новый буфер, тело команды (extras, ключ и
+     * значение) разделяется с исходным пакетом без копирования. Индексы исходного пакета не изменяются.
+     *
+     * @param alloc  аллокатор буфера заголовков
+     * @param packet пакет с UDP заголовком
+     * @param opCode код команды копии
+     * @return новый пакет, удерживающий тело исходного
+     */
+    public static ByteBuf withOpCode(ByteBufAllocator alloc, ByteBuf packet, byte opCode) {
+        int headersLength = UDP_HEADER_LENGTH + COMMAND_HEADER_LENGTH;
+        int index = packet.readerIndex();
+
+        ByteBuf headers = alloc.buffer(headersLength, headersLength);
+        headers.writeBytes(packet, index, headersLength);
+        headers.setByte(UDP_HEADER_LENGTH + 1, opCode);
+
+        ByteBuf body = packet.slice(index + headersLength, packet.readableBytes() - headersLength).retain();
+
+        CompositeByteBuf result = alloc.compositeBuffer(2);
+        result.addComponent(headers);
+        result.addComponent(body);
+        // addComponent не сдвигает writerIndex
+        result.writerIndex(headers.readableBytes() + body.readableBytes());
+        return result;
     }
 
     /**
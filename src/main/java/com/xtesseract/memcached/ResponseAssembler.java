@@ -0,0 +1,212 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.xtesseract.memcached.ProtocolHelper.UDP_HEADER_LENGTH;
+
+/**
+ * Собирает ответы memcached, занимающие несколько датаграмм. Части ответа накапливаются по отправителю и
+ * идентификатору запроса из UDP заголовка и без копирования объединяются в {@link CompositeByteBuf}, который
+ * передается дальше по конвейеру как одна датаграмма. Датаграммы, содержащие ответ целиком, передаются без изменений.
+ * <p/>
+ * Неполные ответы удаляются по истечении таймаута запроса при получении любой датаграммы и при периодической
+ * проверке {@link #expire}: они хранятся в порядке поступления, поэтому проверяются только самые старые. Объем памяти,
+ * занимаемой неполными ответами, ограничен: при превышении ограничения удаляются самые старые из них.
+ * <p/>
+ * Должен использоваться только из event loop канала.
+ */
+class ResponseAssembler extends ChannelInboundHandlerAdapter {
+
+    private static final class Key {
+        private final InetSocketAddress sender;
+        private final int requestId;
+
+        Key(InetSocketAddress sender, int requestId) {
+            this.sender = sender;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return requestId == key.requestId && sender.equals(key.sender);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sender.hashCode() + requestId;
+        }
+    }
+
+    private static final class Fragments {
+        private final ByteBuf[] parts;
+        private final long created; // ns.
+        private int received;
+        private int bytes;
+
+        Fragments(int total, long created) {
+            this.parts = new ByteBuf[total];
+            this.created = created;
+        }
+
+        void release() {
+            for (ByteBuf part : parts) {
+                if (null != part) {
+                    part.release();
+                }
+            }
+        }
+    }
+
+    private final Map<Key, Fragments> fragments = new LinkedHashMap<>();
+    private final long maxAge; // ns.
+    private final int maxBytes;
+    private int bytes;
+
+    /**
+     * @param timeout  время ожидания недостающих частей ответа в мс.
+     * @param maxBytes максимальный суммарный размер неполных ответов в байтах
+     */
+    ResponseAssembler(int timeout, int maxBytes) {
+        this.maxAge = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof DatagramPacket)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        DatagramPacket packet = (DatagramPacket) msg;
+        ByteBuf buf = packet.content();
+        if (buf.readableBytes() < UDP_HEADER_LENGTH) {
+            packet.release();
+            return;
+        }
+
+        // UDP header
+        int readerIndex = buf.readerIndex();
+        int requestId = buf.getUnsignedShort(readerIndex);
+        int sequenceNumber = buf.getUnsignedShort(readerIndex + 2);
+        int totalNumberOfDatagrams = buf.getUnsignedShort(readerIndex + 4);
+
+        long now = System.nanoTime();
+        expire(now);
+
+        if (totalNumberOfDatagrams <= 1) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        if (sequenceNumber >= totalNumberOfDatagrams) {
+            packet.release();
+            return;
+        }
+
+        Key key = new Key(packet.sender(), requestId);
+        Fragments entry = fragments.get(key);
+        if (null == entry) {
+            entry = new Fragments(totalNumberOfDatagrams, now);
+            fragments.put(key, entry);
+        } else if (entry.parts.length != totalNumberOfDatagrams || null != entry.parts[sequenceNumber]) {
+            // Повтор или часть другого ответа с тем же идентификатором
+            packet.release();
+            return;
+        }
+
+        int size = buf.readableBytes();
+        entry.parts[sequenceNumber] = buf;
+        entry.bytes += size;
+        bytes += size;
+        ++entry.received;
+
+        if (!evictOverflow(entry)) {
+            return;
+        }
+
+        if (entry.received == totalNumberOfDatagrams) {
+            fragments.remove(key);
+            bytes -= entry.bytes;
+            ctx.fireChannelRead(new DatagramPacket(compose(ctx, entry.parts), packet.recipient(), packet.sender()));
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (Fragments entry : fragments.values()) {
+            entry.release();
+        }
+        fragments.clear();
+        bytes = 0;
+        super.channelInactive(ctx);
+    }
+
+    private CompositeByteBuf compose(ChannelHandlerContext ctx, ByteBuf[] parts) {
+        CompositeByteBuf composite = ctx.alloc().compositeBuffer(parts.length);
+        for (int i = 0; i < parts.length; ++i) {
+            ByteBuf part = parts[i];
+            if (i > 0) {
+                // UDP заголовок сохраняется только у первой части
+                part.skipBytes(UDP_HEADER_LENGTH);
+            }
+            composite.addComponent(part);
+            composite.writerIndex(composite.writerIndex() + part.readableBytes());
+        }
+        return composite;
+    }
+
+    /**
+     * Удаляет самые старые неполные ответы, пока их суммарный размер превышает ограничение.
+     *
+     * @return {@code false}, если был удален ответ {@code current}
+     */
+    private boolean evictOverflow(Fragments current) {
+        boolean alive = true;
+        Iterator<Fragments> it = fragments.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Fragments entry = it.next();
+            alive &= entry != current;
+            remove(it, entry);
+        }
+        return alive;
+    }
+
+    /**
+     * Удаляет неполные ответы, ожидающие недостающих частей дольше таймаута запроса.
+     *
+     * @param now текущее время в нс.
+     */
+    void expire(long now) {
+        Iterator<Fragments> it = fragments.values().iterator();
+        while (it.hasNext()) {
+            Fragments entry = it.next();
+            if (now - entry.created < maxAge) {
+                return;
+            }
+            remove(it, entry);
+        }
+    }
+
+    private void remove(Iterator<?> it, Fragments entry) {
+        it.remove();
+        bytes -= entry.bytes;
+        entry.release();
+    }
+}
@@ -0,0 +1,167 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetSocketAddress;
+
+import static com.xtesseract.memcached.ProtocolHelper.COMMAND_HEADER_LENGTH;
+import static com.xtesseract.memcached.ProtocolHelper.RESPONSE_PACKET_MAGIC;
+
+/**
+ * Разбирает ответы memcached и завершает ожидающие их обещания. Не зависит от транспорта: получает последовательность
+ * ответов без UDP заголовка.
+ */
+class ResponseDispatcher {
+    private final PendingRequests callbacks;
+    private final ClientMetrics metrics;
+    private final ServerTimeouts timeouts;
+    private final ServerHealth health;
+
+    ResponseDispatcher(PendingRequests callbacks, ClientMetrics metrics) {
+        this(callbacks, metrics, null);
+    }
+
+    ResponseDispatcher(PendingRequests callbacks, ClientMetrics metrics, ServerTimeouts timeouts) {
+        this(callbacks, metrics, timeouts, null);
+    }
+
+    /**
+     * @param timeouts получает время ответа серверов, {@code null} - время ожидания не зависит от сервера
+     * @param health   получает ответы серверов, {@code null} - недоступные серверы не исключаются
+     */
+    ResponseDispatcher(PendingRequests callbacks, ClientMetrics metrics, ServerTimeouts timeouts, ServerHealth health) {
+        this.callbacks = callbacks;
+        this.metrics = metrics;
+        this.timeouts = timeouts;
+        this.health = health;
+    }
+
+    /**
+     * Разбирает все ответы, содержащиеся в буфере.
+     *
+     * @param sender сервер, приславший ответы
+     */
+    void dispatch(ByteBuf buf, InetSocketAddress sender) {
+        // Буфер может содержать несколько ответов, например, на пакетный запрос значений
+        while (buf.readableBytes() >= COMMAND_HEADER_LENGTH) {
+            if (!readResponse(buf, sender)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Разбирает один ответ memcached. Ответ читается непосредственно из полученного буфера: дополнительные поля и ключ
+     * читаются только для команд, которым они нужны, значение передается срезом буфера. Буфер остается во владении
+     * вызывающего.
+     *
+     * @return {@code false}, если разбор буфера следует прекратить
+     */
+    private boolean readResponse(ByteBuf buf, InetSocketAddress sender) {
+        // Operation header
+        short magic = buf.readUnsignedByte(); // Magic number.
+        if (RESPONSE_PACKET_MAGIC != magic) {
+            // Пакет не от memcahed
+            return false;
+        }
+        byte opCode = buf.readByte();                // Command code
+        int keyLength = buf.readUnsignedShort();     // Length in bytes of the text key that follows the command extras
+        short extrasLength = buf.readUnsignedByte(); // Length in bytes of the command extras
+        byte dataType = buf.readByte();              // Reserved for future use (Sean is using this soon).
+        int status = buf.readUnsignedShort();        // Status of the response (non-zero on error).
+        int totalBodyLength = buf.readInt();         // Length in bytes of extra + key + value
+        int opaque = buf.readInt();                  // Will be copied back to you in the response.
+        long cas = buf.readLong();                   // Data version check
+
+        int bodyLength = totalBodyLength - extrasLength - keyLength;
+        if (bodyLength < 0 || buf.readableBytes() < totalBodyLength) {
+            // Ответ поврежден или получен не полностью
+            return false;
+        }
+
+        // Data
+        int extrasIndex = buf.readerIndex();
+        int keyIndex = extrasIndex + extrasLength;
+        int bodyIndex = keyIndex + keyLength;
+        buf.skipBytes(totalBodyLength);
+
+        long now = System.nanoTime();
+        long latency = now - callbacks.registeredAt(opaque);
+        if (null != timeouts) {
+            // Время ответа сервера считается от отправки ему: упреждающий запрос отправляется позже регистрации.
+            // Опоздавшие ответы тоже учитываются: по ним видно время ответа медленного зеркала
+            long sentAt = callbacks.sentAt(opaque, sender);
+            if (0 != sentAt) {
+                timeouts.update(sender, now - sentAt);
+            }
+        }
+        if (null != health) {
+            health.responded(sender);
+        }
+        // Пакетный запрос и GAT_Q ожидают ответы до получения ответа на NOOP, который отправляется следом
+        Promise promise = Operation.GET_KQ == opCode || Operation.GAT_Q == opCode ? callbacks.get(opaque) : callbacks.remove(opaque);
+        int responseLength = COMMAND_HEADER_LENGTH + totalBodyLength;
+        if (null == promise) {
+            // Ответ уже получен или истек таймаут. Ответы на TOUCH зеркалам только для записи не ожидаются
+            if (PendingRequests.UNTRACKED != opaque) {
+                metrics.lateResponseReceived(sender, opCode, status, responseLength);
+            }
+            return true;
+        }
+        if (Operation.NOOP == opCode && promise.isDone()) {
+            // Ответ на GAT_Q уже получен, NOOP только освобождает место в таблице и не считается опоздавшим
+            return true;
+        }
+        metrics.responseReceived(sender, opCode, status, latency, responseLength);
+        if (0 != status) {
+            if (Operation.GET_KQ != opCode) {
+                promise.tryFailure(new OperationError(status));
+            }
+            return true;
+        }
+
+        switch (opCode) {
+            case Operation.GET:
+            case Operation.GAT:
+            case Operation.GAT_Q:
+                ((ValuePromise<?>) promise).complete(flags(buf, extrasIndex, extrasLength), cas, buf.slice(bodyIndex, bodyLength));
+                return true;
+
+            case Operation.GET_KQ:
+                ((MultiGetRequest.Batch) promise).hit(buf.toString(keyIndex, keyLength, CharsetUtil.UTF_8),
+                        flags(buf, extrasIndex, extrasLength),
+                        buf.slice(bodyIndex, bodyLength));
+                return true;
+
+            case Operation.ADD:
+            case Operation.REPLACE:
+            case Operation.SET:
+            case Operation.DELETE:
+            case Operation.APPEND:
+            case Operation.PREPEND:
+            case Operation.TOUCH:
+            case Operation.NOOP:
+                promise.trySuccess(null);
+                return true;
+
+            case Operation.DECREMENT:
+            case Operation.INCREMENT:
+                if (bodyLength < 8) {
+                    promise.tryFailure(new IllegalArgumentException("Invalid counter value length: " + bodyLength));
+                    return true;
+                }
+                promise.trySuccess(buf.getLong(bodyIndex));
+                return true;
+
+            default:
+                promise.tryFailure(new IllegalArgumentException("Unsupported operation: " + opCode));
+                return true;
+        }
+    }
+
+    private static int flags(ByteBuf buf, int extrasIndex, int extrasLength) {
+        return extrasLength >= 4 ? buf.getInt(extrasIndex) : 0;
+    }
+}
@@ -0,0 +1,159 @@
+package com.xtesseract.memcached;
+
+import io.netty.util.concurrent.Future;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Обнаружение недоступных серверов. Сервер исключается из маршрутизации, если он не ответил подряд на несколько
+ * запросов, первый из которых отправлен раньше времени ожидания ответа: ответ на любой запрос, в том числе
+ * опоздавший, сбрасывает счетчик. Исключенному серверу периодически отправляется NOOP, после ответа на который
+ * сервер возвращается в маршрутизацию. Состояние серверов, удаленных из {@link Topology топологии}, удаляется, и
+ * их проверка прекращается.
+ *
+ * @see HealthyKeyLocator
+ */
+class ServerHealth {
+
+    private static final class Server {
+        private final AtomicInteger unanswered = new AtomicInteger();
+        private volatile long firstUnansweredAt; // ns.
+        private volatile boolean ejected;
+    }
+
+    private final int failureThreshold;
+    private final long failureTimeout; // ns.
+    private final long probeInterval; // ns.
+    private final ClientMetrics metrics;
+
+    private final ConcurrentHashMap<InetSocketAddress, Server> servers = new ConcurrentHashMap<>();
+    // Изменяется при исключении и возвращении сервера
+    private final AtomicInteger version = new AtomicInteger();
+
+    private volatile AbstractClient client;
+
+    /**
+     * @param failureThreshold количество запросов подряд без ответа, после которого сервер исключается
+     * @param failureTimeout   время ожидания ответа в нс.
+     * @param probeInterval    период проверки исключенного сервера в нс.
+     */
+    ServerHealth(int failureThreshold, long failureTimeout, long probeInterval, ClientMetrics metrics, Topology topology) {
+        this.failureThreshold = failureThreshold;
+        this.failureTimeout = failureTimeout;
+        this.probeInterval = probeInterval;
+        this.metrics = metrics;
+        topology.addListener(() -> retain(topology.servers()));
+    }
+
+    /**
+     * Задает клиента, через которого отправляются проверки исключенных серверов.
+     */
+    void attach(AbstractClient client) {
+        this.client = client;
+    }
+
+    boolean isAlive(InetSocketAddress server) {
+        Server state = servers.get(server);
+        return null == state || !state.ejected;
+    }
+
+    /**
+     * @return номер состояния серверов, изменяется при исключении и возвращении сервера
+     */
+    int version() {
+        return version.get();
+    }
+
+    /**
+     * Учитывает отправку серверу запроса, ожидающего ответа.
+     */
+    void sent(InetSocketAddress server, long now) {
+        Server state = server(server);
+        if (state.ejected) {
+            return;
+        }
+        int unanswered = state.unanswered.incrementAndGet();
+        if (1 == unanswered) {
+            state.firstUnansweredAt = now;
+        } else if (unanswered >= failureThreshold && now - state.firstUnansweredAt > failureTimeout) {
+            eject(server, state);
+        }
+    }
+
+    /**
+     * Учитывает ответ сервера.
+     */
+    void responded(InetSocketAddress server) {
+        Server state = servers.get(server);
+        if (null != state && 0 != state.unanswered.get()) {
+            state.unanswered.set(0);
+        }
+    }
+
+    private void eject(InetSocketAddress server, Server state) {
+        synchronized (state) {
+            if (state.ejected) {
+                return;
+            }
+            state.ejected = true;
+        }
+        version.incrementAndGet();
+        metrics.serverEjected(server);
+        scheduleProbe(server, state);
+    }
+
+    /**
+     * Удаляет состояние серверов, которых нет среди {@code current}. Проверки удаленных исключенных серверов
+     * прекращаются.
+     */
+    void retain(Set<InetSocketAddress> current) {
+        Iterator<Map.Entry<InetSocketAddress, Server>> it = servers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<InetSocketAddress, Server> entry = it.next();
+            if (!current.contains(entry.getKey())) {
+                it.remove();
+                if (entry.getValue().ejected) {
+                    version.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void scheduleProbe(InetSocketAddress server, Server state) {
+        AbstractClient c = client;
+        // Сервер мог быть удален из топологии
+        if (null != c && servers.get(server) == state) {
+            c.eventLoop().schedule(() -> probe(c, server, state), probeInterval, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void probe(AbstractClient client, InetSocketAddress server, Server state) {
+        client.noop(server).addListener((Future<Void> future) -> {
+            if (!future.isSuccess()) {
+                scheduleProbe(server, state);
+                return;
+            }
+            if (servers.get(server) != state) {
+                return;
+            }
+            state.unanswered.set(0);
+            state.ejected = false;
+            version.incrementAndGet();
+            metrics.serverReadmitted(server);
+        });
+    }
+
+    private Server server(InetSocketAddress server) {
+        Server state = servers.get(server);
+        if (null == state) {
+            state = servers.computeIfAbsent(server, s -> new Server());
+        }
+        return state;
+    }
+}
@@ -0,0 +1,93 @@
+package com.xtesseract.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+/**
+ * Время ожидания ответа серверов. Для серверов зеркала может быть задано свое время ожидания. В адаптивном режиме
+ * время ожидания вычисляется по времени ответа сервера, как RTO в TCP (RFC 6298): srtt + 4 * rttvar, и
+ * ограничивается снизу минимальным, а сверху заданным для сервера временем ожидания. Время ответа серверов
+ * учитывается и без адаптации, по нему упреждающие запросы выбирают порядок зеркал.
+ */
+class ServerTimeouts {
+
+    private final long timeout; // ns.
+    private final long minTimeout; // ns.
+    private final boolean adaptive;
+    private final Map<InetSocketAddress, Long> mirrorTimeouts; // ns.
+    private final LatencyTracker latencies = new LatencyTracker();
+
+    /**
+     * @param timeout        время ожидания в нс., в адаптивном режиме - максимальное
+     * @param minTimeout     минимальное время ожидания в адаптивном режиме в нс.
+     * @param mirrorTimeouts время ожидания серверов зеркал, для которых оно задано, в нс.
+     */
+    ServerTimeouts(long timeout, long minTimeout, boolean adaptive, Map<InetSocketAddress, Long> mirrorTimeouts) {
+        this.timeout = timeout;
+        this.minTimeout = minTimeout;
+        this.adaptive = adaptive;
+        this.mirrorTimeouts = mirrorTimeouts;
+    }
+
+    /**
+     * @return время ожидания ответа сервера в нс.
+     */
+    long timeout(InetSocketAddress server) {
+        Long mirrorTimeout = mirrorTimeouts.get(server);
+        long max = null == mirrorTimeout ? timeout : mirrorTimeout;
+        if (!adaptive) {
+            return max;
+        }
+        LatencyTracker.ServerLatency latency = latencies.get(server);
+        if (!latency.isMeasured()) {
+            return max;
+        }
+        return Math.max(minTimeout, Math.min(max, latency.upperBound()));
+    }
+
+    /**
+     * @param retryDelay задержка повторной отправки без адаптации в нс.
+     * @return задержка повторной отправки запроса, на который сервер не ответил, в нс.
+     */
+    long retryDelay(InetSocketAddress server, long retryDelay) {
+        return adaptive ? timeout(server) : retryDelay;
+    }
+
+    /**
+     * @return оценка времени ответа сервера
+     */
+    LatencyTracker.ServerLatency latency(InetSocketAddress server) {
+        return latencies.get(server);
+    }
+
+    /**
+     * Учитывает время ответа сервера.
+     *
+     * @param rtt время от регистрации запроса до ответа в нс.
+     */
+    void update(InetSocketAddress server, long rtt) {
+        latencies.get(server).update(rtt);
+    }
+
+    /**
+     * @return время ожидания, раньше которого не истекает ни один запрос, в нс.
+     */
+    long minTimeout() {
+        long result = adaptive ? minTimeout : timeout;
+        for (long mirrorTimeout : mirrorTimeouts.values()) {
+            result = Math.min(result, mirrorTimeout);
+        }
+        return result;
+    }
+
+    /**
+     * @return наибольшее время ожидания в нс.
+     */
+    long maxTimeout() {
+        long result = timeout;
+        for (long mirrorTimeout : mirrorTimeouts.values()) {
+            result = Math.max(result, mirrorTimeout);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,246 @@
+package com.xtesseract.memcached;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.xtesseract.memcached.ProtocolHelper.UDP_HEADER_LENGTH;
+
+/**
+ * Реализация  {@link com.xtesseract.memcached.Client memcahed клиента} бинароного протокола использующего
+ * в качестве транспорта TCP. С каждым сервером устанавливается несколько постоянных соединений, запросы в которых
+ * отправляются конвейером без ожидания ответов на предыдущие.
+ */
+public class TcpClient extends AbstractClient {
+
+    /**
+     * Максимальный размер ответа: 1 Мб значения по умолчанию memcached с запасом на заголовки
+     */
+    private static final int MAX_FRAME_LENGTH = 2 * 1024 * 1024;
+
+    private static final long RECONNECT_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static class PacketInboundHandler extends SimpleChannelInboundHandler<ByteBuf> {
+        private final ResponseDispatcher dispatcher;
+
+        public PacketInboundHandler(ResponseDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+            dispatcher.dispatch(msg, (InetSocketAddress) ctx.channel().remoteAddress());
+        }
+    }
+
+    /**
+     * Постоянное соединение с сервером. Запросы накапливаются в {@link WriteQueue очереди} до подключения.
+     */
+    private final class Connection {
+        private final InetSocketAddress server;
+        private final WriteQueue queue = new WriteQueue();
+
+        private volatile ChannelFuture future;
+        private volatile boolean closed;
+        private long connectTime; // ns.
+
+        Connection(InetSocketAddress server) {
+            this.server = server;
+            connect();
+        }
+
+        void send(ByteBuf packet) {
+            if (closed) {
+                // Сервер вернулся в топологию или получил повтор после закрытия, запрос идет в новое соединение
+                connection(server).send(packet);
+                return;
+            }
+            // UDP заголовок в TCP не используется. Пакет может отправляться на несколько серверов, поэтому его
+            // индексы не изменяются
+            queue.offer(packet.slice(packet.readerIndex() + UDP_HEADER_LENGTH, packet.readableBytes() - UDP_HEADER_LENGTH));
+
+            ChannelFuture f = connect();
+            if (f.isDone()) {
+                queue.scheduleFlush(f.channel());
+            }
+            // Иначе очередь будет сброшена по завершении подключения
+        }
+
+        /**
+         * До подключения запросы накапливаются в очереди, поэтому переполненным считается только буфер
+         * подключенного канала.
+         */
+        boolean isWritable() {
+            ChannelFuture f = future;
+            return null == f || !f.isDone() || !f.channel().isActive() || f.channel().isWritable();
+        }
+
+        void close() {
+            closed = true;
+            ChannelFuture f = future;
+            if (null != f) {
+                f.addListener((ChannelFuture connectFuture) -> connectFuture.channel().close());
+            }
+        }
+
+        private ChannelFuture connect() {
+            ChannelFuture f = future;
+            if (null != f && (!f.isDone() || f.channel().isActive())) {
+                return f;
+            }
+            synchronized (this) {
+                f = future;
+                long now = System.nanoTime();
+                if (null == f || (f.isDone() && !f.channel().isActive() && now - connectTime >= RECONNECT_INTERVAL)) {
+                    connectTime = now;
+                    f = bootstrap.connect(server);
+                    f.addListener((ChannelFuture connectFuture) -> queue.scheduleFlush(connectFuture.channel()));
+                    future = f;
+                }
+                return f;
+            }
+        }
+    }
+
+    private final Bootstrap bootstrap;
+    private final EventLoop eventLoop;
+    private final int connectionsPerServer;
+    private final ConcurrentHashMap<InetSocketAddress, Connection[]> connections = new ConcurrentHashMap<>();
+
+    TcpClient(int timeout,
+              int timeoutResolution,
+              int maxDatagramSize,
+              int maxPendingRequests,
+              ClientMetrics metrics,
+              boolean coalesceGets,
+              Admission admission,
+              ServerTimeouts timeouts,
+              ServerHealth health,
+              Compression compression,
+              int bulkWindow,
+              MirrorLocators mirrors,
+              int connectionsPerServer,
+              EventLoopGroup group,
+              Topology topology,
+              ServerStrategy readStrategy,
+              BatchStrategy batchReadStrategy,
+              ServerStrategy readOnWriteStrategy,
+              ServerStrategy writeOnlyStrategy,
+              ServerStrategy commonStrategy,
+              ServerStrategy casStrategy,
+              ServerStrategy replicaStrategy) {
+        super(timeout, timeoutResolution, maxDatagramSize, maxPendingRequests, metrics, coalesceGets, admission, timeouts, health, compression, bulkWindow, mirrors, readStrategy, batchReadStrategy, readOnWriteStrategy, writeOnlyStrategy, commonStrategy, casStrategy, replicaStrategy);
+
+        this.eventLoop = group.next();
+        this.connectionsPerServer = connectionsPerServer;
+
+        this.bootstrap = new Bootstrap();
+        bootstrap.group(group)
+                .channel(Transports.socketChannel(group))
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeout)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        // Длина ответа: заголовок 24 байта, поле total body length по смещению 8
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 8, 4, 12, 0),
+                                new PacketInboundHandler(dispatcher()));
+                    }
+                });
+
+        // Соединения устанавливаются заранее, чтобы первые запросы не ожидали подключения, в том числе с серверами,
+        // добавленными при замене зеркал
+        connectAll(topology);
+        long closeDelay = timeout + 2L * timeoutResolution;
+        topology.addListener(() -> {
+            connectAll(topology);
+            closeRemoved(topology, closeDelay);
+        });
+
+        scheduleTimeouts();
+    }
+
+    @Override
+    public ByteBufAllocator alloc() {
+        return ByteBufAllocator.DEFAULT;
+    }
+
+    @Override
+    public EventLoop eventLoop() {
+        return eventLoop;
+    }
+
+    @Override
+    void write(InetSocketAddress server, ByteBuf packet) {
+        metrics().requestSent(server,
+                packet.getByte(packet.readerIndex() + UDP_HEADER_LENGTH + 1),
+                packet.readableBytes() - UDP_HEADER_LENGTH);
+
+        connection(server).send(packet);
+    }
+
+    @Override
+    boolean isWritable(InetSocketAddress server) {
+        return connection(server).isWritable();
+    }
+
+    private Connection connection(InetSocketAddress server) {
+        Connection[] serverConnections = connections(server);
+        // Запросы одного потока идут через одно соединение, чтобы сохранить их порядок
+        int index = (int) (Thread.currentThread().getId() % serverConnections.length);
+        return serverConnections[index];
+    }
+
+    private void connectAll(Topology topology) {
+        for (InetSocketAddress server : topology.servers()) {
+            connections(server);
+        }
+    }
+
+    /**
+     * Соединения с удаленными серверами закрываются, когда отправленные до замены зеркал запросы получили ответы или
+     * истекли. Если сервер за это время вернулся в топологию, его соединения остаются.
+     */
+    private void closeRemoved(Topology topology, long delay) {
+        Set<InetSocketAddress> servers = topology.servers();
+        for (InetSocketAddress server : connections.keySet()) {
+            if (!servers.contains(server)) {
+                eventLoop.schedule(() -> {
+                    if (topology.servers().contains(server)) {
+                        return;
+                    }
+                    Connection[] removed = connections.remove(server);
+                    if (null != removed) {
+                        for (Connection connection : removed) {
+                            connection.close();
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private Connection[] connections(InetSocketAddress server) {
+        return connections.computeIfAbsent(server, s -> {
+            Connection[] result = new Connection[connectionsPerServer];
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = new Connection(s);
+            }
+            return result;
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package com.xtesseract.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Зеркала серверов memcached, которые можно заменить без пересоздания клиента. Замена атомарна: новый список
+ * зеркал публикуется целиком, после чего клиенты пересчитывают по нему таблицы размещения ключей. Запросы, уже
+ * отправленные серверам, ожидают ответа как обычно, последующие запросы и повторы направляются по новым таблицам.
+ *
+ * @see ClientBuilder#setTopology(Topology)
+ * @see TopologyWatcher
+ */
+public class Topology {
+
+    /**
+     * Неизменяемый список зеркал
+     */
+    private static final class Mirrors {
+        private final List<List<InetSocketAddress>> readWrite;
+        private final List<List<InetSocketAddress>> writeOnly;
+
+        Mirrors(List<List<InetSocketAddress>> readWrite, List<List<InetSocketAddress>> writeOnly) {
+            this.readWrite = copy(readWrite);
+            this.writeOnly = copy(writeOnly);
+        }
+
+        private static List<List<InetSocketAddress>> copy(List<List<InetSocketAddress>> mirrors) {
+            List<List<InetSocketAddress>> result = new ArrayList<>(mirrors.size());
+            for (List<InetSocketAddress> servers : mirrors) {
+                result.add(Collections.unmodifiableList(new ArrayList<>(servers)));
+            }
+            return Collections.unmodifiableList(result);
+        }
+    }
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile Mirrors mirrors;
+
+    public Topology() {
+        this(Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * @param readWriteMirrors зеркала для чтения и записи
+     * @param writeOnlyMirrors зеркала только для записи
+     */
+    public Topology(List<List<InetSocketAddress>> readWriteMirrors, List<List<InetSocketAddress>> writeOnlyMirrors) {
+        this.mirrors = new Mirrors(readWriteMirrors, writeOnlyMirrors);
+    }
+
+    /**
+     * Заменяет зеркала. Таблицы размещения ключей клиентов пересчитываются в вызывающем потоке до возврата из
+     * метода.
+     *
+     * @param readWriteMirrors зеркала для чтения и записи
+     * @param writeOnlyMirrors зеркала только для записи
+     */
+    public synchronized void update(List<List<InetSocketAddress>> readWriteMirrors, List<List<InetSocketAddress>> writeOnlyMirrors) {
+        mirrors = new Mirrors(readWriteMirrors, writeOnlyMirrors);
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    public List<List<InetSocketAddress>> readWriteMirrors() {
+        return mirrors.readWrite;
+    }
+
+    public List<List<InetSocketAddress>> writeOnlyMirrors() {
+        return mirrors.writeOnly;
+    }
+
+    /**
+     * @return серверы всех зеркал
+     */
+    public Set<InetSocketAddress> servers() {
+        Mirrors current = mirrors;
+        Set<InetSocketAddress> result = new LinkedHashSet<>();
+        current.readWrite.forEach(result::addAll);
+        current.writeOnly.forEach(result::addAll);
+        return result;
+    }
+
+    /**
+     * Добавляет обработчик замены зеркал. Обработчики вызываются последовательно под блокировкой топологии.
+     */
+    void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+}
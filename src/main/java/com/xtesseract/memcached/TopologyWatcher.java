@@ -0,0 +1,157 @@
+package com.xtesseract.memcached;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Обновляет {@link Topology топологию} из файла при его изменении. Каждая строка файла описывает зеркало: тип
+ * ({@code rw} - для чтения и записи, {@code w} - только для записи) и серверы в виде {@code host:port} через
+ * пробел. Пустые строки и строки, начинающиеся с {@code #}, пропускаются:
+ * <pre>
+ * rw 10.0.0.1:11211 10.0.0.2:11211
+ * w 10.1.0.1:11211
+ * </pre>
+ * Файл должен содержать хотя бы одно зеркало для чтения и записи. Если файл не удалось прочитать или разобрать,
+ * топология не изменяется, а ошибка передается обработчику.
+ */
+public class TopologyWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TopologyWatcher.class);
+
+    private final Path file;
+    private final Topology topology;
+    private final Consumer<? super Exception> errorHandler;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * Загружает топологию из файла и начинает следить за его изменениями. Ошибки загрузки измененного файла
+     * записываются в журнал.
+     *
+     * @throws IOException              если файл не удалось прочитать
+     * @throws IllegalArgumentException если файл содержит ошибку
+     */
+    public TopologyWatcher(Path file, Topology topology) throws IOException {
+        this(file, topology, e -> LOGGER.warn("Failed to reload memcached topology from {}", file, e));
+    }
+
+    /**
+     * Загружает топологию из файла и начинает следить за его изменениями.
+     *
+     * @param errorHandler получает ошибки загрузки измененного файла в потоке наблюдения, не должен выбрасывать
+     *                     исключений
+     * @throws IOException              если файл не удалось прочитать
+     * @throws IllegalArgumentException если файл содержит ошибку
+     */
+    public TopologyWatcher(Path file, Topology topology, Consumer<? super Exception> errorHandler) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.topology = topology;
+        this.errorHandler = errorHandler;
+        reload();
+
+        this.watchService = FileSystems.getDefault().newWatchService();
+        // Файл обычно заменяется переименованием, поэтому отслеживается каталог
+        this.file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watch, "memcached-topology-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Перечитывает файл и заменяет зеркала топологии.
+     *
+     * @throws IOException              если файл не удалось прочитать
+     * @throws IllegalArgumentException если файл содержит ошибку
+     */
+    public void reload() throws IOException {
+        List<List<InetSocketAddress>> readWrite = new ArrayList<>();
+        List<List<InetSocketAddress>> writeOnly = new ArrayList<>();
+        parse(Files.readAllLines(file, StandardCharsets.UTF_8), readWrite, writeOnly);
+        topology.update(readWrite, writeOnly);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    static void parse(List<String> lines, List<List<InetSocketAddress>> readWrite, List<List<InetSocketAddress>> writeOnly) {
+        for (String line : lines) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens[0].isEmpty() || tokens[0].startsWith("#")) {
+                continue;
+            }
+            if (tokens.length < 2) {
+                throw new IllegalArgumentException("Mirror without servers: " + line);
+            }
+
+            List<InetSocketAddress> servers = new ArrayList<>(tokens.length - 1);
+            for (int i = 1; i < tokens.length; ++i) {
+                servers.add(parseAddress(tokens[i]));
+            }
+            switch (tokens[0]) {
+                case "rw":
+                    readWrite.add(servers);
+                    break;
+                case "w":
+                    writeOnly.add(servers);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown mirror type: " + line);
+            }
+        }
+        // Пустой или обрезанный при записи файл не должен оставлять клиент без зеркал
+        if (readWrite.isEmpty()) {
+            throw new IllegalArgumentException("No read-write mirror");
+        }
+    }
+
+    private static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Server without port: " + address);
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= file.getFileName().equals(event.context());
+                }
+                key.reset();
+                if (changed) {
+                    try {
+                        reload();
+                    } catch (IOException | RuntimeException e) {
+                        // Файл может быть записан не полностью, остается прежняя топология до следующего изменения
+                        errorHandler.accept(e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Наблюдение остановлено
+        }
+    }
+}
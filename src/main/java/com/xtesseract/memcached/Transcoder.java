@@ -0,0 +1,38 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Преобразует значения в тело запроса memcached и обратно без промежуточных копий.
+ *
+ * @param <T> тип значения
+ * @see Transcoders
+ */
+public interface Transcoder<T> {
+
+    /**
+     * Записывает значение в буфер запроса.
+     *
+     * @param value значение
+     * @param out   буфер запроса
+     * @return флаги значения, которые memcached сохраняет вместе с ним
+     */
+    int encode(T value, ByteBuf out);
+
+    /**
+     * Читает значение из тела ответа. Буфер действителен только во время вызова.
+     *
+     * @param flags флаги, с которыми значение было сохранено
+     * @param in    тело ответа
+     * @return значение
+     */
+    T decode(int flags, ByteBuf in);
+
+    /**
+     * @param value значение
+     * @return ожидаемый размер закодированного значения в байтах, используется для выделения буфера запроса
+     */
+    default int sizeHint(T value) {
+        return 64;
+    }
+}
@@ -0,0 +1,107 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Стандартные {@link Transcoder преобразователи} значений
+ */
+public final class Transcoders {
+
+    /**
+     * Флаги строки в UTF-8. Совпадают с флагами значений, записанных клиентом ранее.
+     */
+    public static final int STRING_FLAGS = 0;
+
+    /**
+     * Флаги произвольного массива байт
+     */
+    public static final int BYTES_FLAGS = 1;
+
+    /**
+     * Флаг сжатого значения, см. {@link ClientBuilder#compressValues(int)}. Не должен использоваться
+     * преобразователями. Этот же бит используют для сжатия другие клиенты memcached, но формат значения несовместим с
+     * их форматами: сжатое значение предваряется 4 байтами размера несжатого значения. Значения других клиентов с
+     * этим флагом не распаковываются и завершают чтение ошибкой.
+     */
+    public static final int COMPRESSED_FLAG = 2;
+
+    /**
+     * Строка в кодировке UTF-8
+     */
+    public static final Transcoder<String> STRING = new Transcoder<String>() {
+        @Override
+        public int encode(String value, ByteBuf out) {
+            int length = value.length();
+            for (int i = 0; i < length; ++i) {
+                if (value.charAt(i) >= 0x80) {
+                    out.writeBytes(value.getBytes(CharsetUtil.UTF_8));
+                    return STRING_FLAGS;
+                }
+            }
+            // ASCII записывается без промежуточного массива
+            for (int i = 0; i < length; ++i) {
+                out.writeByte(value.charAt(i));
+            }
+            return STRING_FLAGS;
+        }
+
+        @Override
+        public String decode(int flags, ByteBuf in) {
+            return in.toString(CharsetUtil.UTF_8);
+        }
+
+        @Override
+        public int sizeHint(String value) {
+            return value.length();
+        }
+    };
+
+    /**
+     * Массив байт
+     */
+    public static final Transcoder<byte[]> BYTES = new Transcoder<byte[]>() {
+        @Override
+        public int encode(byte[] value, ByteBuf out) {
+            out.writeBytes(value);
+            return BYTES_FLAGS;
+        }
+
+        @Override
+        public byte[] decode(int flags, ByteBuf in) {
+            byte[] result = new byte[in.readableBytes()];
+            in.readBytes(result);
+            return result;
+        }
+
+        @Override
+        public int sizeHint(byte[] value) {
+            return value.length;
+        }
+    };
+
+    /**
+     * Буфер. При записи читаемые байты буфера копируются в запрос, буфер остается во владении вызывающего.
+     * Полученный буфер является срезом ответа, вызывающий должен освободить его.
+     */
+    public static final Transcoder<ByteBuf> BYTE_BUF = new Transcoder<ByteBuf>() {
+        @Override
+        public int encode(ByteBuf value, ByteBuf out) {
+            out.writeBytes(value, value.readerIndex(), value.readableBytes());
+            return BYTES_FLAGS;
+        }
+
+        @Override
+        public ByteBuf decode(int flags, ByteBuf in) {
+            return in.retain();
+        }
+
+        @Override
+        public int sizeHint(ByteBuf value) {
+            return value.readableBytes();
+        }
+    };
+
+    private Transcoders() {
+    }
+}
@@ -0,0 +1,36 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.EventLoop;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Транспорт, которым запросы доставляются до серверов memcached
+ */
+interface Transport {
+
+    ByteBufAllocator alloc();
+
+    /**
+     * @return event loop, в котором выполняются таймауты и повторные отправки запросов
+     */
+    EventLoop eventLoop();
+
+    /**
+     * Отправляет серверу пакет, сформированный {@link ProtocolHelper}. Пакет начинается с UDP заголовка, транспорты,
+     * которым он не нужен, пропускают его.
+     *
+     * @param server сервер memcached
+     * @param packet пакет, владение которым передается транспорту
+     */
+    void send(InetSocketAddress server, ByteBuf packet);
+
+    /**
+     * Освобождает место в таблице запросов, ожидающих ответа, для запроса, пакет которого не будет отправлен.
+     *
+     * @param packet пакет запроса, владение не передается
+     */
+    void cancel(ByteBuf packet);
+}
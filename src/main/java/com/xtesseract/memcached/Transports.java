@@ -0,0 +1,57 @@
+package com.xtesseract.memcached;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Выбор реализации каналов Netty: нативный epoll транспорт, если он доступен, иначе NIO. Тип канала определяется
+ * типом {@link EventLoopGroup}, в которой он регистрируется.
+ */
+final class Transports {
+
+    private Transports() {
+    }
+
+    /**
+     * Нативный транспорт читает и пишет датаграммы по адресам direct буферов, поэтому без доступа к ним он не
+     * используется.
+     *
+     * @return {@code true}, если доступен нативный epoll транспорт
+     */
+    static boolean isEpollAvailable() {
+        return Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+    }
+
+    /**
+     * @return группа event loop нативного транспорта, если он доступен, иначе NIO
+     */
+    static EventLoopGroup newEventLoopGroup() {
+        if (isEpollAvailable()) {
+            return new EpollEventLoopGroup();
+        }
+        return new NioEventLoopGroup();
+    }
+
+    static Class<? extends DatagramChannel> datagramChannel(EventLoopGroup group) {
+        if (group instanceof EpollEventLoopGroup) {
+            return EpollDatagramChannel.class;
+        }
+        return NioDatagramChannel.class;
+    }
+
+    static Class<? extends SocketChannel> socketChannel(EventLoopGroup group) {
+        if (group instanceof EpollEventLoopGroup) {
+            return EpollSocketChannel.class;
+        }
+        return NioSocketChannel.class;
+    }
+}
@@ -0,0 +1,49 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * Обещание значения, которое читается из тела ответа {@link Transcoder преобразователем}
+ */
+class ValuePromise<T> extends DefaultPromise<T> {
+
+    private final Transcoder<T> transcoder;
+
+    ValuePromise(EventExecutor executor, Transcoder<T> transcoder) {
+        super(executor);
+        this.transcoder = transcoder;
+    }
+
+    /**
+     * Завершает обещание значением из тела ответа.
+     *
+     * @param flags флаги значения
+     * @param cas   версия значения
+     * @param body  тело ответа, действительное только во время вызова
+     */
+    void complete(int flags, long cas, ByteBuf body) {
+        complete(flags, body);
+    }
+
+    /**
+     * Завершает обещание значением из тела ответа.
+     *
+     * @param flags флаги значения
+     * @param body  тело ответа, действительное только во время вызова
+     */
+    void complete(int flags, ByteBuf body) {
+        T value;
+        try {
+            value = transcoder.decode(flags, body);
+        } catch (Throwable e) {
+            tryFailure(e);
+            return;
+        }
+        if (!trySuccess(value)) {
+            ReferenceCountUtil.release(value);
+        }
+    }
+}
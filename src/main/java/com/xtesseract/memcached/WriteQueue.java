@@ -0,0 +1,58 @@
+package com.xtesseract.memcached;
+
+import io.netty.channel.Channel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Очередь исходящих сообщений канала. Сообщения добавляются из любых потоков и записываются в канал из его event
+ * loop, сброс буфера канала выполняется один раз на все накопленные сообщения. Так на множество запросов приходится
+ * одна задача event loop и один системный вызов записи.
+ */
+class WriteQueue {
+    private final Queue<Object> queue = PlatformDependent.newMpscQueue();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * Добавляет сообщение в очередь и планирует ее сброс в канал.
+     */
+    void write(Channel channel, Object msg) {
+        offer(msg);
+        scheduleFlush(channel);
+    }
+
+    /**
+     * Добавляет сообщение в очередь без планирования сброса, например, пока канал подключается.
+     */
+    void offer(Object msg) {
+        queue.offer(msg);
+    }
+
+    void scheduleFlush(Channel channel) {
+        if (flushScheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(() -> flush(channel));
+        }
+    }
+
+    private void flush(Channel channel) {
+        // Сообщения, добавленные во время сброса, запланируют следующий сброс
+        flushScheduled.set(false);
+
+        boolean active = channel.isActive();
+        Object msg;
+        while (null != (msg = queue.poll())) {
+            if (active) {
+                channel.write(msg);
+            } else {
+                // Запрос завершится по таймауту
+                ReferenceCountUtil.release(msg);
+            }
+        }
+        if (active) {
+            channel.flush();
+        }
+    }
+}
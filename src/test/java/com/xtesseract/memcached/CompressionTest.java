@@ -0,0 +1,40 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressionTest {
+
+    private final Compression compression = new Compression(10, Compressors.DEFLATE);
+
+    @Test
+    public void compressAndDecompress() {
+        // настройка системы
+        Transcoder<String> transcoder = compression.wrap(Transcoders.STRING);
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 1000) {
+            value.append("value");
+        }
+        ByteBuf buf = Unpooled.buffer();
+
+        // вызов системы
+        int flags = transcoder.encode(value.toString(), buf);
+
+        // проверка утверждений
+        Assert.assertEquals(Transcoders.COMPRESSED_FLAG, flags);
+        Assert.assertTrue(buf.readableBytes() < 100);
+        Assert.assertEquals(value.toString(), transcoder.decode(flags, buf));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectForeignCompressedValue() {
+        // настройка системы
+        // Значение, сжатое gzip другим клиентом с тем же флагом, начинается с 1f 8b 08 00
+        ByteBuf gzip = Unpooled.wrappedBuffer(new byte[]{0x1f, (byte) 0x8b, 0x08, 0x00, 0x00, 0x00});
+
+        // вызов системы
+        compression.wrap(Transcoders.BYTES).decode(Transcoders.COMPRESSED_FLAG | Transcoders.BYTES_FLAGS, gzip);
+    }
+}
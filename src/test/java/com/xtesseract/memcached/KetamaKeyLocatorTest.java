@@ -0,0 +1,79 @@
+package com.xtesseract.memcached;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class KetamaKeyLocatorTest {
+
+    private static final int NUMBER_OF_KEYS = 100000;
+
+    @Test
+    public void distribution() throws Exception {
+        // настройка системы
+        List<InetSocketAddress> servers = servers(4);
+        KeyLocator locator = new KetamaKeyLocator(servers);
+
+        // вызов системы
+        Map<InetSocketAddress, Integer> counts = new HashMap<>();
+        for (int i = 0; i < NUMBER_OF_KEYS; ++i) {
+            counts.merge(locator.locate("key" + i), 1, Integer::sum);
+        }
+
+        // проверка утверждений
+        Assert.assertEquals(servers.size(), counts.size());
+        for (int count : counts.values()) {
+            Assert.assertTrue("Uneven distribution: " + counts, Math.abs(count - NUMBER_OF_KEYS / 4) < NUMBER_OF_KEYS / 10);
+        }
+    }
+
+    @Test
+    public void removeServer() throws Exception {
+        // настройка системы
+        List<InetSocketAddress> servers = servers(5);
+        KeyLocator locator = new KetamaKeyLocator(servers);
+        InetSocketAddress removed = servers.remove(2);
+        KeyLocator reduced = new KetamaKeyLocator(servers);
+
+        // вызов системы
+        int moved = 0;
+        for (int i = 0; i < NUMBER_OF_KEYS; ++i) {
+            String key = "key" + i;
+            InetSocketAddress before = locator.locate(key);
+            InetSocketAddress after = reduced.locate(key);
+            if (!before.equals(removed)) {
+                // проверка утверждений
+                Assert.assertEquals(key, before, after);
+            } else {
+                ++moved;
+            }
+        }
+        Assert.assertTrue(moved < NUMBER_OF_KEYS / 4);
+    }
+
+    @Test
+    public void sameRingForSameServers() throws Exception {
+        // настройка системы
+        KeyLocator first = new KetamaKeyLocator(servers(3));
+        KeyLocator second = new KetamaKeyLocator(servers(3));
+
+        // вызов системы и проверка утверждений
+        for (int i = 0; i < 1000; ++i) {
+            String key = "ключ" + i;
+            Assert.assertEquals(first.locate(key), second.locate(key));
+        }
+    }
+
+    private List<InetSocketAddress> servers(int number) {
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (int i = 0; i < number; ++i) {
+            result.add(InetSocketAddress.createUnresolved("10.0.0." + (i + 1), 11211));
+        }
+        return result;
+    }
+}
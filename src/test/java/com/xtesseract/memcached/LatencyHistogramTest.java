@@ -0,0 +1,40 @@
+package com.xtesseract.memcached;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketContainsValue() {
+        for (long value : new long[]{0, 1, 7, 8, 15, 16, 1000, 123456789, Long.MAX_VALUE}) {
+            // вызов системы
+            int bucket = LatencyHistogram.bucket(value);
+
+            // проверка утверждений
+            Assert.assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            Assert.assertTrue(0 == bucket || value > LatencyHistogram.upperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void percentile() {
+        // настройка системы
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // вызов системы
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(i * 1000L);
+        }
+
+        // проверка утверждений
+        Assert.assertEquals(1000, histogram.count());
+        assertClose(500000, histogram.percentile(50));
+        assertClose(990000, histogram.percentile(99));
+        assertClose(1000000, histogram.percentile(100));
+    }
+
+    private void assertClose(long expected, long actual) {
+        Assert.assertTrue(actual + " is not close to " + expected, Math.abs(actual - expected) <= expected / 8);
+    }
+}
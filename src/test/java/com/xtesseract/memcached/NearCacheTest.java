@@ -0,0 +1,126 @@
+package com.xtesseract.memcached;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class NearCacheTest {
+
+    private static final long TTL = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void evictNotReferencedEntry() {
+        // настройка системы
+        NearCache cache = new NearCache(2, 1024, TTL);
+        long now = System.nanoTime();
+        cache.put("first", cache.stamp("first"), 0, new byte[1], now);
+        cache.put("second", cache.stamp("second"), 0, new byte[1], now);
+        cache.get("first", now);
+
+        // вызов системы
+        cache.put("third", cache.stamp("third"), 0, new byte[1], now);
+
+        // проверка утверждений
+        Assert.assertNotNull(cache.get("first", now));
+        Assert.assertNull(cache.get("second", now));
+        Assert.assertNotNull(cache.get("third", now));
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void evictToFitBytes() {
+        // настройка системы
+        NearCache cache = new NearCache(16, 10, TTL);
+        long now = System.nanoTime();
+        cache.put("first", cache.stamp("first"), 0, new byte[4], now);
+        cache.put("second", cache.stamp("second"), 0, new byte[4], now);
+
+        // вызов системы
+        cache.put("third", cache.stamp("third"), 0, new byte[6], now);
+        cache.put("large", cache.stamp("large"), 0, new byte[11], now);
+
+        // проверка утверждений
+        Assert.assertNull(cache.get("first", now));
+        Assert.assertNotNull(cache.get("second", now));
+        Assert.assertNotNull(cache.get("third", now));
+        Assert.assertNull(cache.get("large", now));
+    }
+
+    @Test
+    public void expireEntry() {
+        // настройка системы
+        NearCache cache = new NearCache(16, 1024, TTL);
+        long now = System.nanoTime();
+        cache.put("key", cache.stamp("key"), 7, new byte[]{1}, now);
+
+        // вызов системы
+        NearCache.Entry live = cache.get("key", now + TTL - 1);
+        NearCache.Entry expired = cache.get("key", now + TTL);
+
+        // проверка утверждений
+        Assert.assertEquals(7, live.flags);
+        Assert.assertNull(expired);
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void ignoreValueReadBeforeInvalidation() {
+        // настройка системы
+        NearCache cache = new NearCache(16, 1024, TTL);
+        long now = System.nanoTime();
+        cache.put("key", cache.stamp("key"), 0, new byte[1], now);
+        long stamp = cache.stamp("key");
+
+        // вызов системы
+        cache.invalidate("key");
+        // Ответ на запрос, отправленный до изменения ключа
+        cache.put("key", stamp, 0, new byte[1], now);
+
+        // проверка утверждений
+        Assert.assertNull(cache.get("key", now));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void clear() {
+        // настройка системы
+        NearCache cache = new NearCache(16, 1024, TTL);
+        long now = System.nanoTime();
+        cache.put("first", cache.stamp("first"), 0, new byte[1], now);
+        long stamp = cache.stamp("second");
+
+        // вызов системы
+        cache.clear();
+        // Ответ на чтение, отправленное до очистки
+        cache.put("second", stamp, 0, new byte[1], now);
+
+        // проверка утверждений
+        Assert.assertNull(cache.get("first", now));
+        Assert.assertNull(cache.get("second", now));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void limitTtlByExp() {
+        // настройка системы
+        NearCache cache = new NearCache(16, 1024, TimeUnit.HOURS.toNanos(1));
+        long now = System.nanoTime();
+        long absoluteExp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 60 * 60 * 24 * 31;
+
+        // вызов системы
+        cache.invalidate("relative", 1, now);
+        cache.put("relative", cache.stamp("relative"), 0, new byte[1], now);
+        cache.invalidate("unlimited", 0, now);
+        cache.put("unlimited", cache.stamp("unlimited"), 0, new byte[1], now);
+        cache.invalidate("absolute", (int) absoluteExp, now);
+        cache.put("absolute", cache.stamp("absolute"), 0, new byte[1], now);
+
+        // проверка утверждений
+        long later = now + TimeUnit.SECONDS.toNanos(1);
+        Assert.assertNotNull(cache.get("relative", now));
+        Assert.assertNull(cache.get("relative", later));
+        Assert.assertNotNull(cache.get("unlimited", later));
+        Assert.assertNotNull(cache.get("absolute", later));
+    }
+}
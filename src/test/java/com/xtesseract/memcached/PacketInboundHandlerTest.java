@@ -0,0 +1,245 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.xtesseract.memcached.ProtocolHelper.RESPONSE_PACKET_MAGIC;
+
+/**
+ * Проверяет, что разбор ответов освобождает все буферы
+ */
+public class PacketInboundHandlerTest {
+
+    private static final int NUMBER_OF_RESPONSES = 210000;
+
+    private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 11211);
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 40000);
+
+    private static final byte[] KEY = "key".getBytes(CharsetUtil.UTF_8);
+    private static final byte[] VALUE = "value".getBytes(CharsetUtil.UTF_8);
+    private static final byte[] FLAGS = {0, 0, 0, 1};
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private final List<ByteBuf> received = new ArrayList<>();
+
+    private ResourceLeakDetector.Level leakDetectionLevel;
+    private PendingRequests callbacks;
+    private EmbeddedChannel channel;
+
+    @Test
+    public void releaseBuffers() throws Exception {
+        for (int i = 0; i < NUMBER_OF_RESPONSES; ++i) {
+            // настройка системы и вызов системы
+            switch (i % 7) {
+                case 0:
+                    get();
+                    break;
+                case 1:
+                    error();
+                    break;
+                case 2:
+                    increment();
+                    break;
+                case 3:
+                    lateResponse();
+                    break;
+                case 4:
+                    multiGet();
+                    break;
+                case 5:
+                    fragmentedGet();
+                    break;
+                default:
+                    truncated();
+            }
+
+            // проверка утверждений
+            for (ByteBuf buf : received) {
+                Assert.assertEquals("Response " + i, 0, buf.refCnt());
+            }
+            received.clear();
+        }
+        Assert.assertEquals(0, callbacks.size());
+    }
+
+    @Test
+    public void releaseIncompleteResponseOnTimeout() throws Exception {
+        // настройка системы
+        channel.finish();
+        channel = new EmbeddedChannel(new ResponseAssembler(1, 1024 * 1024),
+                new UdpClient.PacketInboundHandler(new ResponseDispatcher(callbacks, ClientMetrics.NONE)));
+        ByteBuf first = datagram(1, 0, 2);
+        writeResponse(first, Operation.GET, 0, 1, FLAGS, new byte[0], VALUE);
+        receive(first);
+        Thread.sleep(10);
+
+        // вызов системы
+        // Датаграмма с ответом целиком тоже проверяет таймауты неполных ответов
+        lateResponse();
+
+        // проверка утверждений
+        Assert.assertEquals(0, first.refCnt());
+    }
+
+    @Before
+    public void setUp() {
+        leakDetectionLevel = ResourceLeakDetector.getLevel();
+        // Освобождение каждого буфера проверяется по счетчику ссылок, детектор утечек проверяет выборку: с PARANOID
+        // сотни тысяч ответов разбираются слишком долго
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.ADVANCED);
+
+        callbacks = new PendingRequests(16, 0, 0);
+        channel = new EmbeddedChannel(new ResponseAssembler(1000, 1024 * 1024),
+                new UdpClient.PacketInboundHandler(new ResponseDispatcher(callbacks, ClientMetrics.NONE)));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finish();
+        ResourceLeakDetector.setLevel(leakDetectionLevel);
+    }
+
+    private void error() {
+        Promise<String> promise = new ValuePromise<>(ImmediateEventExecutor.INSTANCE, Transcoders.STRING);
+        int opaque = callbacks.register(promise);
+
+        ByteBuf buf = datagram(opaque, 0, 1);
+        writeResponse(buf, Operation.GET, 1, opaque, new byte[0], new byte[0], "Not found".getBytes(CharsetUtil.UTF_8));
+        receive(buf);
+
+        Assert.assertEquals(1, ((OperationError) promise.cause()).getStatus());
+    }
+
+    private void fragmentedGet() {
+        Promise<ByteBuf> promise = new ValuePromise<>(ImmediateEventExecutor.INSTANCE, Transcoders.BYTE_BUF);
+        int opaque = callbacks.register(promise);
+
+        ByteBuf response = alloc.buffer();
+        writeResponse(response, Operation.GET, 0, opaque, FLAGS, new byte[0], VALUE);
+        ByteBuf first = datagram(opaque, 0, 2);
+        first.writeBytes(response, 10);
+        ByteBuf second = datagram(opaque, 1, 2);
+        second.writeBytes(response);
+        response.release();
+
+        receive(second);
+        receive(first);
+
+        ByteBuf value = promise.getNow();
+        Assert.assertEquals("value", value.toString(CharsetUtil.UTF_8));
+        received.add(value);
+        value.release();
+    }
+
+    private void get() {
+        Promise<ByteBuf> promise = new ValuePromise<>(ImmediateEventExecutor.INSTANCE, Transcoders.BYTE_BUF);
+        int opaque = callbacks.register(promise);
+
+        ByteBuf buf = datagram(opaque, 0, 1);
+        writeResponse(buf, Operation.GET, 0, opaque, FLAGS, new byte[0], VALUE);
+        receive(buf);
+
+        ByteBuf value = promise.getNow();
+        Assert.assertEquals("value", value.toString(CharsetUtil.UTF_8));
+        value.release();
+    }
+
+    private void increment() {
+        Promise<Long> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+        int opaque = callbacks.register(promise);
+
+        ByteBuf buf = datagram(opaque, 0, 1);
+        writeResponse(buf, Operation.INCREMENT, 0, opaque, new byte[0], new byte[0], new byte[]{0, 0, 0, 0, 0, 0, 0, 42});
+        receive(buf);
+
+        Assert.assertEquals(42L, (long) promise.getNow());
+    }
+
+    private void lateResponse() {
+        int opaque = callbacks.register(ImmediateEventExecutor.INSTANCE.newPromise());
+        callbacks.remove(opaque);
+
+        ByteBuf buf = datagram(opaque, 0, 1);
+        writeResponse(buf, Operation.GET, 0, opaque, FLAGS, new byte[0], VALUE);
+        receive(buf);
+    }
+
+    private void multiGet() {
+        Promise<Map<String, ByteBuf>> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+        MultiGetRequest<ByteBuf> request = new MultiGetRequest<>(null, promise, Transcoders.BYTE_BUF, Arrays.asList("key", "missing"), 1400);
+        Promise<Void> batch = new MultiGetRequest.Batch(ImmediateEventExecutor.INSTANCE, request);
+        int opaque = callbacks.register(batch);
+        request.retain();
+
+        ByteBuf buf = datagram(opaque, 0, 1);
+        writeResponse(buf, Operation.GET_KQ, 0, opaque, FLAGS, KEY, VALUE);
+        // Повторный ответ не должен удерживать буфер
+        writeResponse(buf, Operation.GET_KQ, 0, opaque, FLAGS, KEY, VALUE);
+        writeResponse(buf, Operation.NOOP, 0, opaque, new byte[0], new byte[0], new byte[0]);
+        receive(buf);
+
+        Assert.assertTrue(batch.isSuccess());
+        Assert.assertFalse(promise.isDone());
+        request.release();
+        ByteBuf value = promise.getNow().get("key");
+        Assert.assertEquals("value", value.toString(CharsetUtil.UTF_8));
+        value.release();
+    }
+
+    private void truncated() {
+        Promise<String> promise = new ValuePromise<>(ImmediateEventExecutor.INSTANCE, Transcoders.STRING);
+        int opaque = callbacks.register(promise);
+
+        ByteBuf buf = datagram(opaque, 0, 1);
+        writeResponse(buf, Operation.GET, 0, opaque, FLAGS, new byte[0], VALUE);
+        buf.writerIndex(buf.writerIndex() - 2);
+        receive(buf);
+
+        Assert.assertFalse(promise.isDone());
+        callbacks.remove(opaque);
+    }
+
+    private ByteBuf datagram(int requestId, int sequenceNumber, int totalNumber) {
+        ByteBuf buf = alloc.buffer();
+        ProtocolHelper.writeUdpHeader(buf, requestId, sequenceNumber, totalNumber);
+        return buf;
+    }
+
+    private void receive(ByteBuf buf) {
+        received.add(buf);
+        channel.writeInbound(new DatagramPacket(buf, CLIENT, SERVER));
+    }
+
+
+    private void writeResponse(ByteBuf buf, byte opCode, int status, int opaque, byte[] extras, byte[] key, byte[] value) {
+        buf.writeByte(RESPONSE_PACKET_MAGIC);
+        buf.writeByte(opCode);
+        buf.writeShort(key.length);
+        buf.writeByte(extras.length);
+        buf.writeByte(0);
+        buf.writeShort(status);
+        buf.writeInt(extras.length + key.length + value.length);
+        buf.writeInt(opaque);
+        buf.writeLong(0);
+        buf.writeBytes(extras);
+        buf.writeBytes(key);
+        buf.writeBytes(value);
+    }
+}
@@ -0,0 +1,164 @@
+package com.xtesseract.memcached;
+
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class PendingRequestsTest {
+
+    @Test
+    public void expireExtendedRequestLater() {
+        // настройка системы
+        PendingRequests requests = new PendingRequests(4, 0, 0);
+        int firstId = requests.register(ImmediateEventExecutor.INSTANCE.newPromise());
+        int secondId = requests.register(ImmediateEventExecutor.INSTANCE.newPromise());
+        requests.extend(firstId, System.nanoTime() + TimeUnit.HOURS.toNanos(1));
+        List<Integer> expired = new ArrayList<>();
+
+        // вызов системы
+        requests.expire(System.nanoTime(), (opaque, promise) -> expired.add(opaque));
+        requests.expire(System.nanoTime(), (opaque, promise) -> expired.add(opaque));
+
+        // проверка утверждений
+        Assert.assertEquals(Arrays.asList(secondId), expired);
+        Assert.assertEquals(1, requests.size());
+        Assert.assertFalse(requests.isSwept(firstId));
+    }
+
+    @Test
+    public void ignoreResponseOfCompletedRequest() {
+        // настройка системы
+        PendingRequests requests = new PendingRequests(2, 0, 0);
+        Promise<Object> first = ImmediateEventExecutor.INSTANCE.newPromise();
+        Promise<Object> second = ImmediateEventExecutor.INSTANCE.newPromise();
+        Promise<Object> third = ImmediateEventExecutor.INSTANCE.newPromise();
+
+        // вызов системы
+        int firstId = requests.register(first);
+        int secondId = requests.register(second);
+        requests.remove(firstId);
+        // Занимает ячейку первого запроса
+        int thirdId = requests.register(third);
+
+        // проверка утверждений
+        Assert.assertNull(requests.get(firstId));
+        Assert.assertNull(requests.remove(firstId));
+        Assert.assertSame(second, requests.get(secondId));
+        Assert.assertSame(third, requests.remove(thirdId));
+        Assert.assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void expireInOrderOfRegistration() {
+        // настройка системы
+        PendingRequests requests = new PendingRequests(4, 0, 0);
+        Promise<Object> first = ImmediateEventExecutor.INSTANCE.newPromise();
+        Promise<Object> second = ImmediateEventExecutor.INSTANCE.newPromise();
+        Promise<Object> third = ImmediateEventExecutor.INSTANCE.newPromise();
+        int firstId = requests.register(first);
+        int secondId = requests.register(second);
+        int thirdId = requests.register(third);
+        requests.remove(secondId);
+        List<Integer> expired = new ArrayList<>();
+
+        // вызов системы
+        requests.expire(System.nanoTime(), (opaque, promise) -> expired.add(opaque));
+        boolean expiredOnRegistrationTick = !expired.isEmpty();
+        requests.expire(System.nanoTime(), (opaque, promise) -> expired.add(opaque));
+
+        // проверка утверждений
+        Assert.assertFalse(expiredOnRegistrationTick);
+        Assert.assertEquals(Arrays.asList(firstId, thirdId), expired);
+        Assert.assertEquals(0, requests.size());
+        Assert.assertTrue(requests.isSwept(thirdId));
+    }
+
+    @Test
+    public void keepRequestsBeforeDeadline() {
+        // настройка системы
+        PendingRequests requests = new PendingRequests(4, 0, TimeUnit.HOURS.toNanos(1));
+        int id = requests.register(ImmediateEventExecutor.INSTANCE.newPromise());
+        List<Integer> expired = new ArrayList<>();
+
+        // вызов системы
+        requests.expire(System.nanoTime(), (opaque, promise) -> expired.add(opaque));
+        requests.expire(System.nanoTime(), (opaque, promise) -> expired.add(opaque));
+
+        // проверка утверждений
+        Assert.assertTrue(expired.isEmpty());
+        Assert.assertEquals(1, requests.size());
+        Assert.assertFalse(requests.isSwept(id));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectWhenFull() {
+        // настройка системы
+        PendingRequests requests = new PendingRequests(3, 0, 0);
+
+        // вызов системы
+        for (int i = 0; i < 5; ++i) {
+            requests.register(ImmediateEventExecutor.INSTANCE.newPromise());
+        }
+    }
+
+    @Test
+    public void roundCapacityUp() {
+        // настройка системы
+        PendingRequests requests = new PendingRequests(3, Integer.MAX_VALUE - 1, 0);
+
+        // вызов системы
+        for (int i = 0; i < 4; ++i) {
+            requests.register(ImmediateEventExecutor.INSTANCE.newPromise());
+        }
+
+        // проверка утверждений
+        Assert.assertEquals(4, requests.size());
+    }
+
+    @Test
+    public void skipUntrackedOpaque() {
+        // настройка системы
+        PendingRequests requests = new PendingRequests(4, -2, 0);
+
+        // вызов системы
+        int firstId = requests.register(ImmediateEventExecutor.INSTANCE.newPromise());
+        int secondId = requests.nextId();
+
+        // проверка утверждений
+        Assert.assertEquals(-1, firstId);
+        Assert.assertEquals(1, secondId);
+        Assert.assertNull(requests.remove(PendingRequests.UNTRACKED));
+    }
+
+    @Test
+    public void rememberSendTimePerServer() {
+        // настройка системы
+        PendingRequests requests = new PendingRequests(4, 0, 0);
+        InetSocketAddress first = new InetSocketAddress("localhost", 11211);
+        InetSocketAddress second = new InetSocketAddress("localhost", 11311);
+        InetSocketAddress third = new InetSocketAddress("localhost", 11411);
+        int unsentId = requests.register(ImmediateEventExecutor.INSTANCE.newPromise());
+        int opaque = requests.register(ImmediateEventExecutor.INSTANCE.newPromise());
+        long registeredAt = requests.registeredAt(opaque);
+
+        // вызов системы
+        requests.sent(opaque, first, Operation.GET, registeredAt + 1);
+        requests.sent(opaque, third, Operation.GET, registeredAt + 2);
+        requests.sent(opaque, second, Operation.GET, registeredAt + 3);
+
+        // проверка утверждений
+        Assert.assertEquals(registeredAt + 1, requests.sentAt(opaque, first));
+        Assert.assertEquals(registeredAt + 3, requests.sentAt(opaque, second));
+        // Промежуточная отправка не сохраняется
+        Assert.assertEquals(0, requests.sentAt(opaque, third));
+        Assert.assertEquals(requests.registeredAt(unsentId), requests.sentAt(unsentId, first));
+    }
+}
@@ -0,0 +1,35 @@
+package com.xtesseract.memcached;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ServerHealthTest {
+
+    private final InetSocketAddress first = new InetSocketAddress("localhost", 11211);
+    private final InetSocketAddress second = new InetSocketAddress("localhost", 11311);
+
+    @Test
+    public void forgetRemovedServer() {
+        // настройка системы
+        Topology topology = new Topology(Arrays.asList(Arrays.asList(first), Arrays.asList(second)), Collections.emptyList());
+        ServerHealth health = new ServerHealth(1, 0, 1, ClientMetrics.NONE, topology);
+        health.sent(first, 0);
+        health.sent(first, 1);
+        health.sent(second, 0);
+        health.sent(second, 1);
+        int version = health.version();
+
+        // вызов системы
+        topology.update(Collections.singletonList(Arrays.asList(first)), Collections.emptyList());
+
+        // проверка утверждений
+        Assert.assertFalse(health.isAlive(first));
+        // Состояние удаленного сервера не хранится, вернувшийся в топологию сервер считается доступным
+        Assert.assertTrue(health.isAlive(second));
+        Assert.assertNotEquals(version, health.version());
+    }
+}
@@ -0,0 +1,113 @@
+package com.xtesseract.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static com.xtesseract.memcached.ProtocolHelper.COMMAND_HEADER_LENGTH;
+import static com.xtesseract.memcached.ProtocolHelper.RESPONSE_PACKET_MAGIC;
+
+public class ServerTimeoutsTest {
+
+    private static final long TIMEOUT = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MIN_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long MIRROR_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final InetSocketAddress local = new InetSocketAddress("localhost", 11211);
+    private final InetSocketAddress remote = new InetSocketAddress("localhost", 11311);
+
+    @Test
+    public void adaptToServerLatency() {
+        // настройка системы
+        ServerTimeouts timeouts = new ServerTimeouts(TIMEOUT, MIN_TIMEOUT, true, Collections.singletonMap(remote, MIRROR_TIMEOUT));
+        long unmeasured = timeouts.timeout(local);
+
+        // вызов системы
+        for (int i = 0; i < 20; ++i) {
+            timeouts.update(local, TimeUnit.MICROSECONDS.toNanos(300));
+            timeouts.update(remote, TimeUnit.MILLISECONDS.toNanos(40 + i % 2));
+        }
+
+        // проверка утверждений
+        Assert.assertEquals(TIMEOUT, unmeasured);
+        Assert.assertEquals(MIN_TIMEOUT, timeouts.timeout(local));
+        long remoteTimeout = timeouts.timeout(remote);
+        Assert.assertTrue(remoteTimeout > TimeUnit.MILLISECONDS.toNanos(40));
+        Assert.assertTrue(remoteTimeout < TIMEOUT);
+        Assert.assertEquals(remoteTimeout, timeouts.retryDelay(remote, TIMEOUT));
+        Assert.assertEquals(MIN_TIMEOUT, timeouts.minTimeout());
+        Assert.assertEquals(MIRROR_TIMEOUT, timeouts.maxTimeout());
+    }
+
+    @Test
+    public void clampToMirrorTimeout() {
+        // настройка системы
+        ServerTimeouts timeouts = new ServerTimeouts(TIMEOUT, MIN_TIMEOUT, true, Collections.singletonMap(remote, MIRROR_TIMEOUT));
+
+        // вызов системы
+        for (int i = 0; i < 20; ++i) {
+            timeouts.update(local, TimeUnit.SECONDS.toNanos(1));
+            timeouts.update(remote, TimeUnit.SECONDS.toNanos(1));
+        }
+
+        // проверка утверждений
+        Assert.assertEquals(TIMEOUT, timeouts.timeout(local));
+        Assert.assertEquals(MIRROR_TIMEOUT, timeouts.timeout(remote));
+    }
+
+    @Test
+    public void fixedMirrorTimeout() {
+        // настройка системы
+        ServerTimeouts timeouts = new ServerTimeouts(TIMEOUT, 0, false, Collections.singletonMap(remote, MIRROR_TIMEOUT));
+
+        // вызов системы
+        timeouts.update(remote, TimeUnit.MILLISECONDS.toNanos(1));
+
+        // проверка утверждений
+        Assert.assertEquals(TIMEOUT, timeouts.timeout(local));
+        Assert.assertEquals(MIRROR_TIMEOUT, timeouts.timeout(remote));
+        Assert.assertEquals(TIMEOUT, timeouts.retryDelay(remote, TIMEOUT));
+        Assert.assertEquals(TIMEOUT, timeouts.minTimeout());
+    }
+
+    @Test
+    public void preferFasterHedgedMirror() throws Exception {
+        // настройка системы
+        ServerTimeouts timeouts = new ServerTimeouts(TIMEOUT, MIN_TIMEOUT, true, Collections.emptyMap());
+        PendingRequests requests = new PendingRequests(4, 0, TIMEOUT);
+        ResponseDispatcher dispatcher = new ResponseDispatcher(requests, ClientMetrics.NONE, timeouts);
+        for (int i = 0; i < 20; ++i) {
+            timeouts.update(remote, TimeUnit.MILLISECONDS.toNanos(5));
+        }
+        Promise<Object> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+        int opaque = requests.register(promise);
+
+        // вызов системы
+        // Медленное зеркало не ответило, упреждающий запрос отправлен позже его обычного времени ответа
+        requests.sent(opaque, remote, Operation.GET, System.nanoTime());
+        Thread.sleep(20);
+        requests.sent(opaque, local, Operation.GET, System.nanoTime());
+        ByteBuf response = Unpooled.buffer(COMMAND_HEADER_LENGTH)
+                .writeByte(RESPONSE_PACKET_MAGIC)
+                .writeByte(Operation.NOOP)
+                .writeZero(6)
+                .writeInt(0)
+                .writeInt(opaque)
+                .writeLong(0);
+        dispatcher.dispatch(response, local);
+        InetSocketAddress[] servers = {remote, local};
+        new HedgedRead(promise, null, null, servers, timeouts, TIMEOUT);
+
+        // проверка утверждений
+        Assert.assertTrue(promise.isSuccess());
+        Assert.assertTrue(timeouts.latency(local).srtt() < timeouts.latency(remote).srtt());
+        Assert.assertArrayEquals(new InetSocketAddress[]{local, remote}, servers);
+    }
+}
@@ -0,0 +1,96 @@
+package com.xtesseract.memcached;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class TopologyWatcherTest {
+
+    private final InetSocketAddress first = new InetSocketAddress("localhost", 11211);
+    private final InetSocketAddress second = new InetSocketAddress("localhost", 11311);
+
+    @Test
+    public void reload() throws Exception {
+        // настройка системы
+        Path file = Files.createTempFile("topology", ".txt");
+        Files.write(file, Arrays.asList("# mirrors", "rw localhost:11211", "", "w localhost:11311"), StandardCharsets.UTF_8);
+        Topology topology = new Topology();
+
+        // вызов системы
+        try (TopologyWatcher watcher = new TopologyWatcher(file, topology)) {
+            Assert.assertEquals(Arrays.asList(Arrays.asList(first)), topology.readWriteMirrors());
+            Assert.assertEquals(Arrays.asList(Arrays.asList(second)), topology.writeOnlyMirrors());
+
+            Files.write(file, Collections.singletonList("rw localhost:11211 localhost:11311"), StandardCharsets.UTF_8);
+            watcher.reload();
+        } finally {
+            Files.delete(file);
+        }
+
+        // проверка утверждений
+        Assert.assertEquals(Arrays.asList(Arrays.asList(first, second)), topology.readWriteMirrors());
+        Assert.assertEquals(Collections.emptyList(), topology.writeOnlyMirrors());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownMirrorType() {
+        // вызов системы
+        TopologyWatcher.parse(Collections.singletonList("r localhost:11211"), new ArrayList<>(), new ArrayList<>());
+    }
+
+    @Test
+    public void keepTopologyWithoutReadWriteMirror() throws Exception {
+        // настройка системы
+        Path file = Files.createTempFile("topology", ".txt");
+        Files.write(file, Collections.singletonList("rw localhost:11211"), StandardCharsets.UTF_8);
+        Topology topology = new Topology();
+        IllegalArgumentException error = null;
+
+        // вызов системы
+        try (TopologyWatcher watcher = new TopologyWatcher(file, topology)) {
+            Files.write(file, Collections.singletonList("w localhost:11311"), StandardCharsets.UTF_8);
+            try {
+                watcher.reload();
+            } catch (IllegalArgumentException e) {
+                error = e;
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        // проверка утверждений
+        Assert.assertNotNull(error);
+        Assert.assertEquals(Arrays.asList(Arrays.asList(first)), topology.readWriteMirrors());
+        Assert.assertEquals(Collections.emptyList(), topology.writeOnlyMirrors());
+    }
+
+    @Test
+    public void reportReloadFailure() throws Exception {
+        // настройка системы
+        Path file = Files.createTempFile("topology", ".txt");
+        Files.write(file, Collections.singletonList("rw localhost:11211"), StandardCharsets.UTF_8);
+        Topology topology = new Topology();
+        CompletableFuture<Exception> error = new CompletableFuture<>();
+
+        // вызов системы
+        try (TopologyWatcher watcher = new TopologyWatcher(file, topology, error::complete)) {
+            Files.write(file, Collections.singletonList("r localhost:11311"), StandardCharsets.UTF_8);
+            error.get(10, TimeUnit.SECONDS);
+        } finally {
+            Files.delete(file);
+        }
+
+        // проверка утверждений
+        Assert.assertTrue(error.get() instanceof IllegalArgumentException);
+        Assert.assertEquals(Arrays.asList(Arrays.asList(first)), topology.readWriteMirrors());
+    }
+}
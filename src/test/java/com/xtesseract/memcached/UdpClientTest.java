@@ -1,15 +1,30 @@
 package com.xtesseract.memcached;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by Nikolay Shestakov <ns@xtesseract.com>
@@ -19,6 +34,238 @@ public class UdpClientTest {
     public static final int DEFAULT_EXP = 60;
     private Client client;
 
+    @Test
+    public void appendAndPrepend() throws Exception {
+        // настройка системы
+        String key = randomString();
+        String missingKey = randomString();
+        client.set(key, DEFAULT_EXP, "b").get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        client.append(key, "c").get(1, TimeUnit.SECONDS);
+        client.prepend(key, "a").get(1, TimeUnit.SECONDS);
+        client.appendQ(key, "d");
+        client.prependQ(key, "_");
+        Throwable notStored = null;
+        try {
+            client.append(missingKey, "a").get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            notStored = e.getCause();
+        }
+
+        // проверка утверждений
+        Thread.sleep(10);
+        Assert.assertEquals("_abcd", client.get(key).get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(OperationError.NOT_STORED, ((OperationError) notStored).getStatus());
+        Assert.assertEquals("_abcd", mirrorClient(11311, ClientBuilder.Protocol.UDP).get(key).get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void blockOnOverload() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(100)
+                .setMaxPendingRequests(1)
+                .blockOnOverload(2000);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11111)));
+        Client blockingClient = builder.build();
+
+        // настройка системы
+        Future<String> first = blockingClient.get(randomString());
+
+        // вызов системы
+        // Сервер не отвечает, место в таблице освобождается по таймауту первого запроса
+        long start = System.nanoTime();
+        Future<String> second = blockingClient.get(randomString());
+        long blocked = System.nanoTime() - start;
+        second.await(1, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertTrue(first.cause() instanceof TimeoutException);
+        Assert.assertTrue(second.cause() instanceof TimeoutException);
+        Assert.assertTrue(blocked >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void blockingClient() throws Exception {
+        BlockingClient blockingClient = new BlockingClient(client);
+
+        // настройка системы
+        String key = randomString();
+        String missingKey = randomString();
+
+        // вызов системы
+        blockingClient.set(key, DEFAULT_EXP, "value");
+        String value = blockingClient.get(key);
+        OperationError notFound = null;
+        try {
+            blockingClient.get(missingKey);
+        } catch (OperationError e) {
+            notFound = e;
+        }
+
+        // проверка утверждений
+        Assert.assertEquals("value", value);
+        Assert.assertEquals(OperationError.KEY_NOT_FOUND, notFound.getStatus());
+    }
+
+    @Test
+    public void cas() throws Exception {
+        // настройка системы
+        String key = randomString();
+        client.set(key, DEFAULT_EXP, "first").get(1, TimeUnit.SECONDS);
+        CasValue<String> first = client.gets(key).get(1, TimeUnit.SECONDS);
+        client.set(key, DEFAULT_EXP, "second").get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        Throwable conflict = null;
+        try {
+            client.cas(key, DEFAULT_EXP, "third", first.getCas()).get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            conflict = e.getCause();
+        }
+        CasValue<String> second = client.gets(key).get(1, TimeUnit.SECONDS);
+        client.cas(key, DEFAULT_EXP, "fourth", second.getCas()).get(1, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertEquals("first", first.getValue());
+        Assert.assertEquals(OperationError.KEY_EXISTS, ((OperationError) conflict).getStatus());
+        Assert.assertEquals("second", second.getValue());
+        Assert.assertEquals("fourth", client.get(key).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void casUpdate() throws Exception {
+        // настройка системы
+        String key = randomString();
+        List<Future<String>> results = new ArrayList<>();
+
+        // вызов системы
+        // Обновления конкурируют, первое добавляет отсутствующий ключ
+        for (int i = 0; i < 5; ++i) {
+            results.add(client.casUpdate(key, DEFAULT_EXP, (String value) -> null == value ? "1" : String.valueOf(Integer.parseInt(value) + 1), Transcoders.STRING));
+        }
+        for (Future<String> result : results) {
+            result.await(3, TimeUnit.SECONDS);
+        }
+
+        // проверка утверждений
+        for (Future<String> result : results) {
+            Assert.assertTrue(String.valueOf(result.cause()), result.isSuccess());
+        }
+        Assert.assertEquals("5", client.get(key).get(1, TimeUnit.SECONDS));
+        // Значение передано зеркалу только для записи
+        Assert.assertEquals("5", mirrorClient(11311, ClientBuilder.Protocol.UDP).get(key).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void coalesceGets() throws Exception {
+        DefaultClientMetrics metrics = new DefaultClientMetrics();
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(100)
+                .setMetrics(metrics)
+                .coalesceGets();
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11111)));
+        Client coalescingClient = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        List<Future<String>> results = new ArrayList<>();
+
+        // вызов системы
+        // Сервер не отвечает, все чтения присоединяются к первому запросу
+        for (int i = 0; i < 10; ++i) {
+            results.add(coalescingClient.get(key));
+        }
+        for (Future<String> result : results) {
+            result.await(1, TimeUnit.SECONDS);
+        }
+
+        // проверка утверждений
+        for (Future<String> result : results) {
+            Assert.assertTrue(result.cause() instanceof TimeoutException);
+        }
+        Assert.assertEquals(1, metrics.requests(Operation.GET));
+        Assert.assertEquals(1, metrics.timeouts());
+    }
+
+    @Test
+    public void coalesceGetsWithDifferentTranscoders() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(2000)
+                .coalesceGets();
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        Client coalescingClient = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        String value = randomString();
+        client.set(key, DEFAULT_EXP, value).get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        Future<String> string = coalescingClient.get(key);
+        Future<byte[]> bytes = coalescingClient.get(key, Transcoders.BYTES);
+        Future<ByteBuf> buf = coalescingClient.get(key, Transcoders.BYTE_BUF);
+
+        // проверка утверждений
+        Assert.assertEquals(value, string.get(1, TimeUnit.SECONDS));
+        Assert.assertArrayEquals(value.getBytes(CharsetUtil.UTF_8), bytes.get(1, TimeUnit.SECONDS));
+        ByteBuf result = buf.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(value, result.toString(CharsetUtil.UTF_8));
+        result.release();
+    }
+
+    @Test
+    public void completableFutureOnExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // настройка системы
+            String key = randomString();
+            client.set(key, DEFAULT_EXP, "value").get(1, TimeUnit.SECONDS);
+            Thread executorThread = executor.submit(Thread::currentThread).get();
+            // Обещание завершается после преобразования, иначе результат завершился бы в вызывающем потоке
+            Promise<String> pending = GlobalEventExecutor.INSTANCE.newPromise();
+
+            // вызов системы
+            CompletableFuture<Thread> completedOn = Futures.toCompletableFuture(pending, executor)
+                    .thenApply(value -> Thread.currentThread());
+            pending.setSuccess(client.get(key).get(1, TimeUnit.SECONDS));
+            CompletableFuture<String> value = Futures.toCompletableFuture(client.get(key));
+
+            // проверка утверждений
+            Assert.assertSame(executorThread, completedOn.get(1, TimeUnit.SECONDS));
+            Assert.assertEquals("value", value.get(1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void compressValues() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(1000)
+                .compressValues(100);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        Client compressingClient = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        String smallKey = randomString();
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 6000) {
+            value.append("{\"id\":").append(value.length()).append(",\"name\":\"value\"},");
+        }
+
+        // вызов системы
+        compressingClient.set(key, DEFAULT_EXP, value.toString()).get(1, TimeUnit.SECONDS);
+        compressingClient.set(smallKey, DEFAULT_EXP, "small").get(1, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertEquals(value.toString(), compressingClient.get(key).get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(value.toString(), compressingClient.getMulti(Arrays.asList(key, smallKey)).get(1, TimeUnit.SECONDS).get(key));
+        Assert.assertTrue(client.get(key, Transcoders.BYTES).get(1, TimeUnit.SECONDS).length < 1400);
+        Assert.assertEquals("small", client.get(smallKey).get(1, TimeUnit.SECONDS));
+    }
+
     @Test
     public void dec() throws Exception {
         // настройка системы
@@ -67,6 +314,183 @@ public class UdpClientTest {
         }
     }
 
+    @Test
+    public void ejectFailedServers() throws Exception {
+        DefaultClientMetrics metrics = new DefaultClientMetrics();
+        InetSocketAddress dead = new InetSocketAddress("localhost", 11111);
+        List<InetSocketAddress> servers = Arrays.asList(dead, new InetSocketAddress("localhost", 11211));
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(100)
+                .ejectFailedServers(2, 60000)
+                .setMetrics(metrics);
+        builder.addReadWriteMirror(servers);
+        Client ejectingClient = builder.build();
+
+        // настройка системы
+        KeyLocator locator = new KetamaKeyLocator(servers);
+        String key = randomString();
+        while (!dead.equals(locator.locate(key))) {
+            key = randomString();
+        }
+
+        // вызов системы
+        Future<String> first = ejectingClient.get(key).await();
+        Future<String> second = ejectingClient.get(key).await();
+        ejectingClient.set(key, DEFAULT_EXP, "value").get(1, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertTrue(first.cause() instanceof TimeoutException);
+        Assert.assertTrue(second.cause() instanceof TimeoutException);
+        Assert.assertTrue(metrics.server(dead).isEjected());
+        Assert.assertEquals(1, metrics.server(dead).ejections());
+        Assert.assertEquals("value", ejectingClient.get(key).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void retryStartsAtAliveMirror() throws Exception {
+        InetSocketAddress dead = new InetSocketAddress("localhost", 11111);
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(100)
+                .ejectFailedServers(2, 60000)
+                .retryOnFail(1, 1000);
+        builder.addReadWriteMirror(Arrays.asList(dead));
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        Client retryClient = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        client.set(key, DEFAULT_EXP, "value").get(1, TimeUnit.SECONDS);
+        retryClient.get(key).await();
+        Thread.sleep(150);
+        retryClient.get(key).await();
+
+        // вызов системы
+        String result = retryClient.get(key).get(1, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertEquals("value", result);
+    }
+
+    @Test
+    public void gatAndGatQ() throws Exception {
+        // настройка системы
+        String key = randomString();
+        String missingKey = randomString();
+        client.set(key, DEFAULT_EXP, "value").get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        String gat = client.gat(key, DEFAULT_EXP).get(1, TimeUnit.SECONDS);
+        String gatQ = client.gatQ(key, DEFAULT_EXP).get(1, TimeUnit.SECONDS);
+        String missing = client.gatQ(missingKey, DEFAULT_EXP).get(1, TimeUnit.SECONDS);
+        Throwable notFound = null;
+        try {
+            client.gat(missingKey, DEFAULT_EXP).get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            notFound = e.getCause();
+        }
+
+        // проверка утверждений
+        Assert.assertEquals("value", gat);
+        Assert.assertEquals("value", gatQ);
+        Assert.assertNull(missing);
+        Assert.assertEquals(OperationError.KEY_NOT_FOUND, ((OperationError) notFound).getStatus());
+    }
+
+    @Test
+    public void gatQHitWithoutLateResponse() throws Exception {
+        DefaultClientMetrics metrics = new DefaultClientMetrics();
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(1000)
+                .setMetrics(metrics);
+        InetSocketAddress server = new InetSocketAddress("localhost", 11211);
+        builder.addReadWriteMirror(Arrays.asList(server));
+        Client measuredClient = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        measuredClient.set(key, DEFAULT_EXP, "value").get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        String gatQ = measuredClient.gatQ(key, DEFAULT_EXP).get(1, TimeUnit.SECONDS);
+        Thread.sleep(50);
+
+        // проверка утверждений
+        // NOOP, отправленный после GAT_Q, освобождает место в таблице и не считается опоздавшим ответом
+        Assert.assertEquals("value", gatQ);
+        Assert.assertEquals(0, metrics.server(server).lateResponses());
+        Assert.assertEquals(0, metrics.pendingRequests());
+    }
+
+    @Test
+    public void getMulti() throws Exception {
+        // настройка системы
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 100; ++i) {
+            String key = randomString();
+            String value = randomString();
+            client.set(key, DEFAULT_EXP, value).get(1, TimeUnit.SECONDS);
+            values.put(key, value);
+        }
+        List<String> keys = new ArrayList<>(values.keySet());
+        keys.add(randomString());
+
+        // вызов системы
+        Map<String, String> result = client.getMulti(keys).get(1, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertEquals(values, result);
+    }
+
+    @Test
+    public void getMultiWithRetryOnFailStrategy() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(2000)
+                .setMaxDatagramSize(100)
+                .retryOnFail(3, 50);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11111)));
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        Client retryClient = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        String value = randomString();
+        client.set(key, DEFAULT_EXP, value).get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        Map<String, String> result = retryClient.getMulti(Arrays.asList(key, randomString())).get(3, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertEquals(Collections.singletonMap(key, value), result);
+    }
+
+    @Test
+    public void hedgedReads() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(400)
+                .hedgedReads();
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11111)));
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        Client hedgedClient = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        String value = randomString();
+        client.set(key, DEFAULT_EXP, value).get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        // Первый запрос уходит на неотвечающее зеркало, ответ приходит на упреждающий запрос
+        String first = hedgedClient.get(key).get(1, TimeUnit.SECONDS);
+        long start = System.nanoTime();
+        String second = hedgedClient.get(key).get(1, TimeUnit.SECONDS);
+        long secondTime = System.nanoTime() - start;
+
+        // проверка утверждений
+        Assert.assertEquals(value, first);
+        Assert.assertEquals(value, second);
+        // Второй запрос сразу отправляется на ответившее зеркало
+        Assert.assertTrue(secondTime < TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
     @Test
     public void inc() throws Exception {
         // настройка системы
@@ -136,6 +560,138 @@ public class UdpClientTest {
         Assert.assertNotNull(oe);
     }
 
+    @Test
+    public void maxPendingRequestsPerServer() throws Exception {
+        DefaultClientMetrics metrics = new DefaultClientMetrics();
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(200)
+                .setMetrics(metrics)
+                .setMaxPendingRequestsPerServer(2);
+        InetSocketAddress server = new InetSocketAddress("localhost", 11111);
+        builder.addReadWriteMirror(Arrays.asList(server));
+        Client limitedClient = builder.build();
+
+        // настройка системы
+        List<Future<String>> pending = Arrays.asList(limitedClient.get(randomString()), limitedClient.get(randomString()));
+
+        // вызов системы
+        Future<String> rejected = limitedClient.get(randomString());
+        rejected.await(100, TimeUnit.MILLISECONDS);
+        int pendingAfterReject = metrics.pendingRequests();
+        int serverPendingAfterReject = metrics.server(server).pendingRequests();
+        for (Future<String> result : pending) {
+            result.await(1, TimeUnit.SECONDS);
+        }
+        Future<String> admitted = limitedClient.get(randomString());
+        admitted.await(1, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertTrue(rejected.cause() instanceof OverloadedException);
+        for (Future<String> result : pending) {
+            Assert.assertTrue(result.cause() instanceof TimeoutException);
+        }
+        Assert.assertTrue(admitted.cause() instanceof TimeoutException);
+        // Отклоненный запрос не занимает место в таблице и не считается истекшим
+        Assert.assertEquals(2, pendingAfterReject);
+        Assert.assertEquals(2, serverPendingAfterReject);
+        Assert.assertEquals(1, metrics.rejected());
+        Assert.assertEquals(3, metrics.timeouts());
+        Assert.assertEquals(3, metrics.timeouts(Operation.GET));
+        Assert.assertEquals(3, metrics.server(server).timeouts());
+        Assert.assertEquals(0, metrics.server(server).pendingRequests());
+    }
+
+    @Test
+    public void mirrorTimeout() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(5000)
+                .adaptiveTimeouts(1);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11111)), 100);
+        Client remoteClient = builder.build();
+
+        // вызов системы
+        long start = System.nanoTime();
+        Future<String> result = remoteClient.get(randomString()).await();
+        long elapsed = System.nanoTime() - start;
+
+        // проверка утверждений
+        Assert.assertTrue(result.cause() instanceof TimeoutException);
+        Assert.assertTrue(elapsed < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        DefaultClientMetrics metrics = new DefaultClientMetrics();
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(100)
+                .setMetrics(metrics);
+        InetSocketAddress first = new InetSocketAddress("localhost", 11211);
+        InetSocketAddress second = new InetSocketAddress("localhost", 11311);
+        builder.addReadWriteMirror(Arrays.asList(first));
+        builder.addReadWriteMirror(Arrays.asList(second));
+        client = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        client.set(key, DEFAULT_EXP, randomString()).get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        client.get(key).get(1, TimeUnit.SECONDS);
+        try {
+            client.get(randomString()).get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals(1, ((OperationError) e.getCause()).getStatus());
+        }
+        Thread.sleep(50);
+
+        // проверка утверждений
+        // Запросы отправляются на оба зеркала, ответ второго приходит после завершения запроса
+        Assert.assertEquals(3, metrics.server(first).requests());
+        Assert.assertEquals(3, metrics.server(second).requests());
+        Assert.assertEquals(3, metrics.server(first).responses() + metrics.server(second).responses());
+        Assert.assertEquals(3, metrics.server(first).lateResponses() + metrics.server(second).lateResponses());
+        Assert.assertEquals(4, metrics.requests(Operation.GET));
+        Assert.assertEquals(2, metrics.responses(Operation.GET));
+        Assert.assertEquals(2, metrics.latency(Operation.GET).count());
+        Assert.assertEquals(1, metrics.errors(1));
+        Assert.assertEquals(0, metrics.timeouts());
+        Assert.assertEquals(0, metrics.pendingRequests());
+        Assert.assertTrue(metrics.server(first).bytesIn() > 0);
+    }
+
+    @Test
+    public void nearCache() throws Exception {
+        DefaultClientMetrics metrics = new DefaultClientMetrics();
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(2000)
+                .setMetrics(metrics)
+                .setNearCache(16, 1024, 60000);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        client = builder.build();
+        Client otherClient = mirrorClient(11211, ClientBuilder.Protocol.UDP);
+
+        // настройка системы
+        String key = randomString();
+        client.set(key, DEFAULT_EXP, "first").get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        String miss = client.get(key).get(1, TimeUnit.SECONDS);
+        otherClient.set(key, DEFAULT_EXP, "second").get(1, TimeUnit.SECONDS);
+        Future<String> hit = client.get(key);
+        client.set(key, DEFAULT_EXP, "third").get(1, TimeUnit.SECONDS);
+        String afterSet = client.get(key).get(1, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertEquals("first", miss);
+        // Изменение другим клиентом не видно до истечения времени жизни значения в кеше
+        Assert.assertTrue(hit.isDone());
+        Assert.assertEquals("first", hit.getNow());
+        Assert.assertEquals("third", afterSet);
+        Assert.assertEquals(1, metrics.nearCacheHits());
+        Assert.assertEquals(2, metrics.nearCacheMisses());
+    }
+
     @Test
     public void retryOnFailStrategy() throws Exception {
         ClientBuilder builder = new ClientBuilder()
@@ -157,6 +713,31 @@ public class UdpClientTest {
         Assert.assertEquals(value, result);
     }
 
+    @Test
+    public void setAllAndGetAll() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(1000)
+                .setBulkWindow(64);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        builder.addWriteOnlyMirror(Arrays.asList(new InetSocketAddress("localhost", 11311)));
+        Client bulkClient = builder.build();
+
+        // настройка системы
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 2000; ++i) {
+            values.put(randomString(), String.valueOf(i));
+        }
+        Map<String, String> result = new HashMap<>();
+
+        // вызов системы
+        long written = bulkClient.setAll(values.entrySet().iterator(), DEFAULT_EXP).get(5, TimeUnit.SECONDS);
+        bulkClient.getAll(values.keySet().iterator(), result::put).get(5, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertEquals(values.size(), written);
+        Assert.assertEquals(values, result);
+    }
+
     @Test
     public void setAndGet() throws Exception {
         // настройка системы
@@ -172,6 +753,89 @@ public class UdpClientTest {
         Assert.assertEquals(value, result);
     }
 
+    @Test
+    public void setAndGetBytes() throws Exception {
+        // настройка системы
+        String key = randomString();
+        byte[] value = new byte[1000];
+        new Random().nextBytes(value);
+
+        client.set(key, DEFAULT_EXP, value).get(2, TimeUnit.SECONDS);
+
+        // вызов системы
+        byte[] result = client.get(key, Transcoders.BYTES).get(2, TimeUnit.SECONDS);
+        ByteBuf bufResult = client.get(key, Transcoders.BYTE_BUF).get(2, TimeUnit.SECONDS);
+        Map<String, byte[]> multiResult = client.getMulti(Collections.singleton(key), Transcoders.BYTES).get(2, TimeUnit.SECONDS);
+
+        // проверка результатов
+        Assert.assertArrayEquals(value, result);
+        Assert.assertEquals(Unpooled.wrappedBuffer(value), bufResult);
+        Assert.assertArrayEquals(value, multiResult.get(key));
+        bufResult.release();
+    }
+
+    @Test
+    public void setAndGetLargeValue() throws Exception {
+        // настройка системы
+        String key = randomString();
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 20000) {
+            value.append(randomString());
+        }
+
+        client.set(key, DEFAULT_EXP, value.toString()).get(2, TimeUnit.SECONDS);
+
+        // вызов системы
+        String result = client.get(key).get(2, TimeUnit.SECONDS);
+
+        // проверка результатов
+        Assert.assertEquals(value.toString(), result);
+    }
+
+    @Test
+    public void setAndGetOverSeveralChannels() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(2000)
+                .setDatagramChannels(4);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        client = builder.build();
+
+        // настройка системы
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 100; ++i) {
+            values.put(randomString(), randomString());
+        }
+
+        // вызов системы
+        List<Thread> threads = new ArrayList<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            Thread thread = new Thread(() -> client.set(entry.getKey(), DEFAULT_EXP, entry.getValue()).syncUninterruptibly());
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Map<String, String> result = client.getMulti(values.keySet()).get(2, TimeUnit.SECONDS);
+
+        // проверка результатов
+        Assert.assertEquals(values, result);
+    }
+
+    @Test
+    public void setToWriteOnlyMirror() throws Exception {
+        // настройка системы
+        String key = randomString();
+        String value = randomString();
+
+        // вызов системы
+        client.set(key, DEFAULT_EXP, value).get(2, TimeUnit.SECONDS);
+
+        // проверка результатов
+        Thread.sleep(10);
+        Assert.assertEquals(value, mirrorClient(11311, ClientBuilder.Protocol.UDP).get(key).get(2, TimeUnit.SECONDS));
+    }
+
     @Test
     public void setQ() throws Exception {
         // настройка системы
@@ -187,6 +851,171 @@ public class UdpClientTest {
         Assert.assertEquals(value, result);
     }
 
+    @Test
+    public void tcpSetAndGet() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(2000)
+                .setReadProtocol(ClientBuilder.Protocol.TCP)
+                .setWriteProtocol(ClientBuilder.Protocol.TCP)
+                .setConnectionsPerServer(2);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        client = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        String value = randomString();
+
+        client.set(key, DEFAULT_EXP, value).get(2, TimeUnit.SECONDS);
+
+        // вызов системы
+        String result = client.get(key).get(2, TimeUnit.SECONDS);
+        Map<String, String> multiResult = client.getMulti(Arrays.asList(key, randomString())).get(2, TimeUnit.SECONDS);
+
+        // проверка результатов
+        Assert.assertEquals(value, result);
+        Assert.assertEquals(Collections.singletonMap(key, value), multiResult);
+    }
+
+    @Test
+    public void tcpSetToSeveralMirrors() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(2000)
+                .setWriteProtocol(ClientBuilder.Protocol.TCP);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11311)));
+        client = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        String value = randomString();
+
+        // вызов системы
+        client.set(key, DEFAULT_EXP, value).get(2, TimeUnit.SECONDS);
+
+        // проверка результатов
+        Thread.sleep(10);
+        Assert.assertEquals(value, mirrorClient(11211, ClientBuilder.Protocol.UDP).get(key).get(2, TimeUnit.SECONDS));
+        Assert.assertEquals(value, mirrorClient(11311, ClientBuilder.Protocol.UDP).get(key).get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void topologyUpdate() throws Exception {
+        InetSocketAddress first = new InetSocketAddress("localhost", 11211);
+        InetSocketAddress second = new InetSocketAddress("localhost", 11311);
+        Topology topology = new Topology(Arrays.asList(Arrays.asList(first)), Collections.emptyList());
+        Client topologyClient = new ClientBuilder()
+                .setTimeout(100)
+                .setTopology(topology)
+                .build();
+
+        // настройка системы
+        String key = randomString();
+        topologyClient.set(key, DEFAULT_EXP, "first").get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        topology.update(Arrays.asList(Arrays.asList(second)), Arrays.asList(Arrays.asList(first)));
+        Future<String> missing = topologyClient.get(key).await();
+        topologyClient.set(key, DEFAULT_EXP, "second").get(1, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertEquals(OperationError.KEY_NOT_FOUND, ((OperationError) missing.cause()).getStatus());
+        Assert.assertEquals("second", topologyClient.get(key).get(1, TimeUnit.SECONDS));
+        Assert.assertEquals("second", mirrorClient(11311, ClientBuilder.Protocol.UDP).get(key).get(2, TimeUnit.SECONDS));
+        Thread.sleep(10);
+        Assert.assertEquals("second", mirrorClient(11211, ClientBuilder.Protocol.UDP).get(key).get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void retryAfterMirrorsRemoved() throws Exception {
+        Topology topology = new Topology(Arrays.asList(Arrays.asList(new InetSocketAddress("localhost", 11111))), Collections.emptyList());
+        Client retryClient = new ClientBuilder()
+                .setTimeout(2000)
+                .setTopology(topology)
+                .retryOnFail(3, 100)
+                .build();
+
+        // настройка системы
+        Future<String> result = retryClient.get(randomString());
+
+        // вызов системы
+        topology.update(Collections.emptyList(), Collections.emptyList());
+        result.await(1, TimeUnit.SECONDS);
+
+        // проверка утверждений
+        Assert.assertTrue(result.cause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void reconnectToReturnedServer() throws Exception {
+        List<List<InetSocketAddress>> first = Arrays.asList(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        List<List<InetSocketAddress>> second = Arrays.asList(Arrays.asList(new InetSocketAddress("localhost", 11311)));
+        Topology topology = new Topology(first, Collections.emptyList());
+        Client tcpClient = new ClientBuilder()
+                .setTimeout(100)
+                .setReadProtocol(ClientBuilder.Protocol.TCP)
+                .setWriteProtocol(ClientBuilder.Protocol.TCP)
+                .setTopology(topology)
+                .build();
+
+        // настройка системы
+        String key = randomString();
+        tcpClient.set(key, DEFAULT_EXP, "value").get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        topology.update(second, Collections.emptyList());
+        // Соединения с удаленным сервером закрываются по истечении времени ожидания
+        Thread.sleep(300);
+        topology.update(first, Collections.emptyList());
+
+        // проверка утверждений
+        Assert.assertEquals("value", tcpClient.get(key).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void touch() throws Exception {
+        // настройка системы
+        String key = randomString();
+        client.set(key, 1, "value").get(1, TimeUnit.SECONDS);
+
+        // вызов системы
+        client.touch(key, DEFAULT_EXP).get(1, TimeUnit.SECONDS);
+        Throwable notFound = null;
+        try {
+            client.touch(randomString(), DEFAULT_EXP).get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            notFound = e.getCause();
+        }
+
+        // проверка утверждений
+        Thread.sleep(1500);
+        Assert.assertEquals("value", client.get(key).get(1, TimeUnit.SECONDS));
+        Assert.assertEquals("value", mirrorClient(11311, ClientBuilder.Protocol.UDP).get(key).get(2, TimeUnit.SECONDS));
+        Assert.assertEquals(OperationError.KEY_NOT_FOUND, ((OperationError) notFound).getStatus());
+    }
+
+    @Test
+    public void udpReadTcpWrite() throws Exception {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(2000)
+                .setWriteProtocol(ClientBuilder.Protocol.TCP);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", 11211)));
+        client = builder.build();
+
+        // настройка системы
+        String key = randomString();
+        int initialValue = randomInt();
+        int amount = randomInt();
+        client.inc(key, DEFAULT_EXP, amount, initialValue).get(2, TimeUnit.SECONDS);
+
+        // вызов системы
+        long incResult = client.inc(key, DEFAULT_EXP, amount, initialValue).get(2, TimeUnit.SECONDS);
+        String result = client.get(key).get(2, TimeUnit.SECONDS);
+
+        // проверка результатов
+        Assert.assertEquals(initialValue + amount, incResult);
+        Assert.assertEquals(String.valueOf(initialValue + amount), result);
+    }
+
     @Before
     public void setUp() {
         ClientBuilder builder = new ClientBuilder()
@@ -196,6 +1025,15 @@ public class UdpClientTest {
         client = builder.build();
     }
 
+    private Client mirrorClient(int port, ClientBuilder.Protocol protocol) {
+        ClientBuilder builder = new ClientBuilder()
+                .setTimeout(2000)
+                .setReadProtocol(protocol)
+                .setWriteProtocol(protocol);
+        builder.addReadWriteMirror(Arrays.asList(new InetSocketAddress("localhost", port)));
+        return builder.build();
+    }
+
     private int randomInt() {
         return new Random().nextInt(5000);
     }